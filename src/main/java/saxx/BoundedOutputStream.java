@@ -0,0 +1,56 @@
+package saxx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output sink for deep checks: counts and discards bytes, failing the write once
+ * a byte limit is exceeded or the transform has been cancelled. Throwing from the
+ * serializer's stream is how a running transform is stopped cooperatively.
+ */
+public class BoundedOutputStream extends OutputStream {
+    private final long maxBytes;
+    private long count = 0;
+    private volatile boolean cancelled = false;
+    private boolean limitExceeded = false;
+
+    /**
+     * @param maxBytes byte limit, or 0 for no limit
+     */
+    public BoundedOutputStream(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isLimitExceeded() {
+        return limitExceeded;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void check(int len) throws IOException {
+        if (cancelled) {
+            throw new IOException("Transform cancelled");
+        }
+        count += len;
+        if (maxBytes > 0 && count > maxBytes) {
+            limitExceeded = true;
+            throw new IOException("Output limit of " + maxBytes + " bytes exceeded");
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        check(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        check(len);
+    }
+}
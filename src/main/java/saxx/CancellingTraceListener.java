@@ -0,0 +1,65 @@
+package saxx;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.Logger;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.Traceable;
+import net.sf.saxon.trans.Mode;
+import net.sf.saxon.trans.UncheckedXPathException;
+import net.sf.saxon.trans.XPathException;
+import java.util.Map;
+
+/**
+ * Stops a transform at its next instruction once cancel() has been called.
+ * Saxon 12 HE has no controller-level interrupt, but a stylesheet compiled with
+ * tracing reports entry to every instruction; throwing from enter() unwinds the
+ * transform even if it recurses or loops without writing output. The cost per
+ * instruction is one volatile read.
+ *
+ * The error is a dynamic error, so xsl:try may catch it, but the first
+ * instruction of the xsl:catch fails the same way.
+ */
+public class CancellingTraceListener implements TraceListener {
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void setOutputDestination(Logger stream) {}
+
+    @Override
+    public void open(Controller controller) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void enter(Traceable traceable, Map<String, Object> properties, XPathContext context) {
+        if (cancelled) {
+            throw new UncheckedXPathException(new XPathException("Transform cancelled"));
+        }
+    }
+
+    @Override
+    public void leave(Traceable traceable) {}
+
+    @Override
+    public void startCurrentItem(Item item) {
+        if (cancelled) {
+            throw new UncheckedXPathException(new XPathException("Transform cancelled"));
+        }
+    }
+
+    @Override
+    public void endCurrentItem(Item item) {}
+
+    @Override
+    public void startRuleSearch() {}
+
+    @Override
+    public void endRuleSearch(Object rule, Mode mode, Item item) {}
+}
@@ -0,0 +1,126 @@
+package saxx;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Per-file results of a check run: status, compile and deep-transform times,
+ * module count and allocated bytes. Written as JSON or JUnit XML for CI.
+ */
+public class CheckReport {
+
+    enum Status { OK, WARNING, FAIL, SKIPPED }
+
+    static final class Entry {
+        final Path file;
+        Status status = Status.OK;
+        String message;
+        long compileNanos;
+        long transformNanos;
+        int modules = -1;
+        long allocatedBytes = -1;
+        List<PerfLint.Finding> perfLint = Collections.emptyList();
+
+        Entry(Path file) {
+            this.file = file;
+        }
+
+        long totalNanos() {
+            return compileNanos + transformNanos;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    int count(Status status) {
+        int n = 0;
+        for (Entry e : entries) {
+            if (e.status == status) n++;
+        }
+        return n;
+    }
+
+    int countPerfLint() {
+        int n = 0;
+        for (Entry e : entries) n += e.perfLint.size();
+        return n;
+    }
+
+    /**
+     * Print the N files with the largest compile + deep-transform time.
+     */
+    void printSlowest(PrintStream out, int n) {
+        List<Entry> timed = new ArrayList<>();
+        for (Entry e : entries) {
+            if (e.status != Status.SKIPPED) timed.add(e);
+        }
+        if (timed.isEmpty()) return;
+        timed.sort((a, b) -> Long.compare(b.totalNanos(), a.totalNanos()));
+        out.printf("%nSlowest %d:%n", Math.min(n, timed.size()));
+        for (Entry e : timed.subList(0, Math.min(n, timed.size()))) {
+            out.printf("  %9.1f ms  (compile %.1f, deep %.1f)  %s%n",
+                millis(e.totalNanos()), millis(e.compileNanos), millis(e.transformNanos), e.file);
+        }
+    }
+
+    void writeJson(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("{");
+            out.printf("  \"checked\": %d,%n", entries.size() - count(Status.SKIPPED));
+            out.printf("  \"errors\": %d,%n", count(Status.FAIL));
+            out.printf("  \"warnings\": %d,%n", count(Status.WARNING));
+            out.printf("  \"skipped\": %d,%n", count(Status.SKIPPED));
+            out.println("  \"files\": [");
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                out.printf(Locale.ROOT,
+                    "    {\"file\": %s, \"status\": %s, \"compileMs\": %.3f, \"transformMs\": %.3f, \"modules\": %d, \"allocatedBytes\": %d, \"message\": %s}%s%n",
+                    Json.quote(e.file.toString()), Json.quote(e.status.name().toLowerCase()),
+                    millis(e.compileNanos), millis(e.transformNanos), e.modules, e.allocatedBytes,
+                    Json.quote(e.message), i < entries.size() - 1 ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    void writeJunit(Path file) throws IOException {
+        long totalNanos = 0;
+        for (Entry e : entries) totalNanos += e.totalNanos();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.printf(Locale.ROOT, "<testsuite name=\"saxx check\" tests=\"%d\" failures=\"%d\" skipped=\"%d\" time=\"%.3f\">%n",
+                entries.size(), count(Status.FAIL), count(Status.SKIPPED), totalNanos / 1e9);
+            for (Entry e : entries) {
+                out.printf(Locale.ROOT, "  <testcase classname=\"saxx.check\" name=\"%s\" time=\"%.3f\">%n",
+                    xml(e.file.toString()), e.totalNanos() / 1e9);
+                if (e.status == Status.FAIL) {
+                    String msg = e.message != null ? e.message : "";
+                    out.printf("    <failure message=\"%s\">%s</failure>%n", xml(msg), xml(msg));
+                } else if (e.status == Status.SKIPPED) {
+                    out.println("    <skipped message=\"fragment\"/>");
+                }
+                out.printf(Locale.ROOT, "    <system-out>compile=%.1fms deep=%.1fms modules=%d allocatedBytes=%d</system-out>%n",
+                    millis(e.compileNanos), millis(e.transformNanos), e.modules, e.allocatedBytes);
+                out.println("  </testcase>");
+            }
+            out.println("</testsuite>");
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static String xml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,118 @@
+package saxx;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.Location;
+import net.sf.saxon.trace.Traceable;
+import net.sf.saxon.trans.Mode;
+import net.sf.saxon.tree.util.Navigator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the transform timeline as Chrome trace events (JSON array format),
+ * loadable in chrome://tracing or Perfetto. Events are streamed to the writer
+ * as they happen, so nothing accumulates in memory. One listener may be shared
+ * by several transforms; the array is closed by the first close().
+ */
+public class ChromeTraceListener implements TraceListener {
+    private final Writer out;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, String> moduleNames = new HashMap<>();
+    private boolean first = true;
+    private boolean closed = false;
+
+    public ChromeTraceListener(Writer out) {
+        this.out = out;
+        write("[");
+    }
+
+    @Override
+    public void setOutputDestination(net.sf.saxon.lib.Logger stream) {}
+
+    @Override
+    public void open(net.sf.saxon.Controller controller) {}
+
+    @Override
+    public void close() {
+        // Saxon already closes it at the end of applyTemplates(); write the array end once
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.write("\n]\n");
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void enter(Traceable traceable, Map<String, Object> properties, XPathContext context) {
+        String type = CompactTraceListener.getInstructionType(traceable);
+        if (type == null) {
+            return;  // Internal/noise instruction, skipped in leave() as well
+        }
+        long ts = micros();
+        Location loc = traceable.getLocation();
+        String module = moduleNames.computeIfAbsent(String.valueOf(loc.getSystemId()),
+            CompactTraceListener::getShortModule);
+        Item contextItem = context.getContextItem();
+        String path = contextItem instanceof NodeInfo ? Navigator.getPath((NodeInfo) contextItem) : null;
+
+        StringBuilder sb = new StringBuilder(160);
+        sb.append(first ? "\n" : ",\n");
+        sb.append("{\"ph\":\"B\",\"pid\":1,\"tid\":1,\"ts\":").append(ts);
+        sb.append(",\"name\":");
+        Json.appendString(sb, type.isEmpty() ? traceable.getClass().getSimpleName() : type);
+        sb.append(",\"cat\":");
+        Json.appendString(sb, traceable.getClass().getSimpleName());
+        sb.append(",\"args\":{\"loc\":");
+        Json.appendString(sb, module + ":" + loc.getLineNumber());
+        if (path != null) {
+            sb.append(",\"path\":");
+            Json.appendString(sb, path);
+        }
+        sb.append("}}");
+        write(sb);
+        first = false;
+    }
+
+    @Override
+    public void leave(Traceable traceable) {
+        if (CompactTraceListener.getInstructionType(traceable) == null) {
+            return;
+        }
+        write(",\n{\"ph\":\"E\",\"pid\":1,\"tid\":1,\"ts\":" + micros() + "}");
+    }
+
+    @Override
+    public void startCurrentItem(Item item) {}
+
+    @Override
+    public void endCurrentItem(Item item) {}
+
+    @Override
+    public void startRuleSearch() {}
+
+    @Override
+    public void endRuleSearch(Object rule, Mode mode, Item item) {}
+
+    private long micros() {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    private void write(CharSequence s) {
+        try {
+            out.append(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
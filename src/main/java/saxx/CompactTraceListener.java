@@ -34,6 +34,7 @@ public class CompactTraceListener implements TraceListener {
     private final Map<String, List<String>> fileCache = new HashMap<>();
     private int nextAlias = 0;
     private boolean showNextWhen = false;
+    private boolean closed = false;
     // Pattern for extracting test attribute (used for choose/when detection)
     private static final Pattern TEST_PATTERN = Pattern.compile("test\\s*=\\s*\"([^\"]*)\"|test\\s*=\\s*'([^']*)'");
     // Common XPath wrapper functions to unwrap for cleaner display
@@ -164,6 +165,11 @@ public class CompactTraceListener implements TraceListener {
 
     @Override
     public void close() {
+        // Saxon closes the listener after applyTemplates(); callers may close it again
+        if (closed) {
+            return;
+        }
+        closed = true;
         if (!fileAliases.isEmpty()) {
             out.println();
             out.println("Files:");
@@ -175,9 +181,16 @@ public class CompactTraceListener implements TraceListener {
 
     @Override
     public void enter(Traceable traceable, Map<String, Object> properties, XPathContext context) {
+        enter(traceable, context.getContextItem(), context);
+    }
+
+    /**
+     * Trace entry to an instruction. The context may be null when replaying
+     * buffered events, in which case attribute values are shown unevaluated.
+     */
+    void enter(Traceable traceable, Item contextItem, XPathContext context) {
         try {
             String node = null;
-            Item contextItem = context.getContextItem();
             if (contextItem instanceof NodeInfo) {
                 node = Navigator.getPath((NodeInfo) contextItem);
             }
@@ -198,7 +211,7 @@ public class CompactTraceListener implements TraceListener {
 
             // Special handling for LocalParam to show value
             if (traceable instanceof LocalParam) {
-                String paramValue = getParamValue((LocalParam) traceable, context, properties);
+                String paramValue = getParamValue((LocalParam) traceable);
                 if (paramValue != null) {
                     detail = paramValue;
                 }
@@ -289,6 +302,13 @@ public class CompactTraceListener implements TraceListener {
     @Override
     public void endRuleSearch(Object rule, Mode mode, Item item) {}
 
+    /**
+     * Set the starting indentation depth (for replay of a partial event stream).
+     */
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
     private void indent() {
         int spaces = Math.min(depth, 20);  // cap indentation
         for (int i = 0; i < spaces; i++) {
@@ -296,7 +316,7 @@ public class CompactTraceListener implements TraceListener {
         }
     }
 
-    private String getInstructionType(Traceable t) {
+    static String getInstructionType(Traceable t) {
         if (t instanceof TemplateRule) return "template";
         if (t instanceof ApplyTemplates) return "apply-templates";
         if (t instanceof CallTemplate) return "call-template";
@@ -459,7 +479,7 @@ public class CompactTraceListener implements TraceListener {
         return null;
     }
 
-    private String getParamValue(LocalParam lp, XPathContext context, Map<String, Object> properties) {
+    private String getParamValue(LocalParam lp) {
         // Try to extract select attribute from expression's location (AttributeLocation)
         try {
             Expression select = lp.getSelectExpression();
@@ -473,7 +493,7 @@ public class CompactTraceListener implements TraceListener {
         return null;
     }
 
-    private String getShortModule(String systemId) {
+    static String getShortModule(String systemId) {
         if (systemId == null) return "?";
         int lastSlash = systemId.lastIndexOf('/');
         return lastSlash >= 0 ? systemId.substring(lastSlash + 1) : systemId;
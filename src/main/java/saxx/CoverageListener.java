@@ -0,0 +1,235 @@
+package saxx;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.instruct.NamedTemplate;
+import net.sf.saxon.expr.instruct.TemplateRule;
+import net.sf.saxon.expr.instruct.TraceExpression;
+import net.sf.saxon.expr.instruct.UserFunction;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.s9api.Location;
+import net.sf.saxon.trace.Traceable;
+import net.sf.saxon.trans.Mode;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Line coverage of stylesheet modules, accumulated across any number of
+ * transforms and written as an lcov tracefile.
+ * Each module keeps a bitset of instrumented lines (taken from the compiled
+ * expression tree) and a bitset of executed lines; recording an event is a
+ * single bit set. Safe to share between concurrent transforms: each thread
+ * sets bits in its own bitsets, without locking, and write() merges them, so
+ * it must be called once the transforms have finished.
+ */
+public class CoverageListener implements TraceListener {
+
+    static final class Module {
+        final String path;
+        final BitSet lines = new BitSet();
+        final BitSet hits = new BitSet();
+        final TreeMap<Integer, String> functions = new TreeMap<>();
+
+        Module(String path) {
+            this.path = path;
+        }
+    }
+
+    /** Lines executed on one thread, by system ID. */
+    private static final class ThreadHits {
+        final Map<String, BitSet> bySystemId = new HashMap<>();
+        String lastSystemId;
+        BitSet lastHits;
+    }
+
+    // Keyed by source path, in first-seen order (the order trace aliases are assigned in)
+    private final Map<String, Module> modules = new LinkedHashMap<>();
+    private final Map<String, Module> bySystemId = new HashMap<>();
+    private final Set<PreparedStylesheet> registered = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<ThreadHits> allThreadHits = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ThreadHits> threadHits = ThreadLocal.withInitial(() -> {
+        ThreadHits hits = new ThreadHits();
+        allThreadHits.add(hits);
+        return hits;
+    });
+
+    /**
+     * Register the instrumented lines and templates of a compiled stylesheet.
+     * Stylesheets that are registered but never run show up with zero hits.
+     */
+    public synchronized void addStylesheet(PreparedStylesheet stylesheet) {
+        if (!registered.add(stylesheet)) {
+            return;
+        }
+        try {
+            StylesheetWalker.walk(stylesheet, new StylesheetWalker.Visitor() {
+                @Override
+                public void component(Location component) {
+                    Module module = module(component.getSystemId());
+                    if (module == null) return;
+                    int line = component.getLineNumber();
+                    module.lines.set(line);
+                    String name = componentName(component);
+                    if (name != null) {
+                        module.functions.putIfAbsent(line, name);
+                    }
+                }
+
+                @Override
+                public void expression(Expression expr, Deque<Expression> ancestors) {
+                    if (expr instanceof TraceExpression) {
+                        Location loc = ((TraceExpression) expr).getChild().getLocation();
+                        Module module = module(loc.getSystemId());
+                        if (module != null) {
+                            module.lines.set(loc.getLineNumber());
+                        }
+                    }
+                }
+            });
+        } catch (Exception e) {
+            // Executed lines are still recorded; only the list of unexecuted ones is incomplete
+        }
+    }
+
+    private static String componentName(Location component) {
+        if (component instanceof TemplateRule) {
+            return "match=\"" + ((TemplateRule) component).getMatchPattern() + "\"";
+        }
+        if (component instanceof NamedTemplate && ((NamedTemplate) component).getTemplateName() != null) {
+            return "name=\"" + ((NamedTemplate) component).getTemplateName().getDisplayName() + "\"";
+        }
+        if (component instanceof UserFunction) {
+            UserFunction f = (UserFunction) component;
+            return f.getFunctionName().getDisplayName() + "#" + f.getArity();
+        }
+        return null;
+    }
+
+    private Module module(String systemId) {
+        if (systemId == null) return null;
+        return bySystemId.computeIfAbsent(systemId, k -> modules.computeIfAbsent(toPath(k), Module::new));
+    }
+
+    private static String toPath(String systemId) {
+        try {
+            return Paths.get(new URI(systemId)).normalize().toString();
+        } catch (Exception e) {
+            return systemId;
+        }
+    }
+
+    @Override
+    public void setOutputDestination(net.sf.saxon.lib.Logger stream) {}
+
+    @Override
+    public void open(Controller controller) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void enter(Traceable traceable, Map<String, Object> properties, XPathContext context) {
+        Location loc = traceable.getLocation();
+        String systemId = loc.getSystemId();
+        if (systemId == null) return;
+        ThreadHits hits = threadHits.get();
+        if (systemId != hits.lastSystemId) {
+            hits.lastSystemId = systemId;
+            hits.lastHits = hits.bySystemId.computeIfAbsent(systemId, k -> new BitSet());
+        }
+        hits.lastHits.set(loc.getLineNumber());
+    }
+
+    @Override
+    public void leave(Traceable traceable) {}
+
+    @Override
+    public void startCurrentItem(Item item) {}
+
+    @Override
+    public void endCurrentItem(Item item) {}
+
+    @Override
+    public void startRuleSearch() {}
+
+    @Override
+    public void endRuleSearch(Object rule, Mode mode, Item item) {}
+
+    /**
+     * Merge an existing lcov tracefile (e.g. from earlier runs) into this one.
+     */
+    public synchronized void merge(Path lcovFile) throws IOException {
+        Module module = null;
+        for (String line : Files.readAllLines(lcovFile)) {
+            if (line.startsWith("SF:")) {
+                module = modules.computeIfAbsent(line.substring(3), Module::new);
+            } else if (module != null && line.startsWith("FN:")) {
+                int comma = line.indexOf(',');
+                if (comma > 0) {
+                    module.functions.putIfAbsent(Integer.parseInt(line.substring(3, comma)), line.substring(comma + 1));
+                }
+            } else if (module != null && line.startsWith("DA:")) {
+                String[] parts = line.substring(3).split(",");
+                int lineNumber = Integer.parseInt(parts[0]);
+                module.lines.set(lineNumber);
+                if (Long.parseLong(parts[1]) > 0) {
+                    module.hits.set(lineNumber);
+                }
+            } else if (line.equals("end_of_record")) {
+                module = null;
+            }
+        }
+    }
+
+    /**
+     * Write all modules as an lcov tracefile. Returns {lines found, lines hit}.
+     */
+    public synchronized int[] write(Path lcovFile) throws IOException {
+        for (ThreadHits hits : allThreadHits) {
+            for (Map.Entry<String, BitSet> e : hits.bySystemId.entrySet()) {
+                module(e.getKey()).hits.or(e.getValue());
+            }
+        }
+        int found = 0;
+        int hit = 0;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(lcovFile))) {
+            out.println("TN:saxx");
+            for (Module module : modules.values()) {
+                BitSet lines = (BitSet) module.lines.clone();
+                lines.or(module.hits);
+                lines.clear(0);  // line unknown
+                out.println("SF:" + module.path);
+                int fnHit = 0;
+                for (Map.Entry<Integer, String> f : module.functions.entrySet()) {
+                    out.println("FN:" + f.getKey() + "," + f.getValue());
+                }
+                for (Map.Entry<Integer, String> f : module.functions.entrySet()) {
+                    boolean executed = module.hits.get(f.getKey());
+                    out.println("FNDA:" + (executed ? 1 : 0) + "," + f.getValue());
+                    if (executed) fnHit++;
+                }
+                out.println("FNF:" + module.functions.size());
+                out.println("FNH:" + fnHit);
+                for (int line = lines.nextSetBit(0); line >= 0; line = lines.nextSetBit(line + 1)) {
+                    out.println("DA:" + line + "," + (module.hits.get(line) ? 1 : 0));
+                }
+                int moduleHit = module.hits.get(0) ? module.hits.cardinality() - 1 : module.hits.cardinality();
+                out.println("LF:" + lines.cardinality());
+                out.println("LH:" + moduleHit);
+                out.println("end_of_record");
+                found += lines.cardinality();
+                hit += moduleHit;
+            }
+        }
+        return new int[] {found, hit};
+    }
+}
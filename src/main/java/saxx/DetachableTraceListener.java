@@ -0,0 +1,76 @@
+package saxx;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.Logger;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.Traceable;
+import net.sf.saxon.trans.Mode;
+import java.util.Map;
+
+/**
+ * Forwards trace events to a delegate until detached. A deep-check transform that
+ * does not stop on cancellation is left running on its own thread; detaching it
+ * keeps its events out of the listeners shared with the files checked after it.
+ *
+ * Events and detach() are serialized, so once detach() returns the delegate
+ * receives nothing more and can safely be read, e.g. by a flight-recorder dump.
+ */
+public class DetachableTraceListener implements TraceListener {
+    private final TraceListener delegate;
+    private boolean attached = true;
+
+    public DetachableTraceListener(TraceListener delegate) {
+        this.delegate = delegate;
+    }
+
+    public synchronized void detach() {
+        attached = false;
+    }
+
+    @Override
+    public synchronized void setOutputDestination(Logger stream) {
+        if (attached) delegate.setOutputDestination(stream);
+    }
+
+    @Override
+    public synchronized void open(Controller controller) {
+        if (attached) delegate.open(controller);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (attached) delegate.close();
+    }
+
+    @Override
+    public synchronized void enter(Traceable traceable, Map<String, Object> properties, XPathContext context) {
+        if (attached) delegate.enter(traceable, properties, context);
+    }
+
+    @Override
+    public synchronized void leave(Traceable traceable) {
+        if (attached) delegate.leave(traceable);
+    }
+
+    @Override
+    public synchronized void startCurrentItem(Item item) {
+        if (attached) delegate.startCurrentItem(item);
+    }
+
+    @Override
+    public synchronized void endCurrentItem(Item item) {
+        if (attached) delegate.endCurrentItem(item);
+    }
+
+    @Override
+    public synchronized void startRuleSearch() {
+        if (attached) delegate.startRuleSearch();
+    }
+
+    @Override
+    public synchronized void endRuleSearch(Object rule, Mode mode, Item item) {
+        if (attached) delegate.endRuleSearch(rule, mode, item);
+    }
+}
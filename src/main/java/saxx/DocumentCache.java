@@ -0,0 +1,112 @@
+package saxx;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.lib.ResourceRequest;
+import net.sf.saxon.lib.ResourceResolver;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.trans.XPathException;
+import javax.xml.transform.Source;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolver for doc()/document() that keeps parsed lookup documents as immutable
+ * trees in an LRU shared by all transforms of a Processor. An entry is reparsed
+ * when the file's modification time or size changes. Safe for concurrent use.
+ */
+public class DocumentCache implements ResourceResolver {
+
+    private static final class CachedDocument {
+        final NodeInfo root;
+        final long modified;
+        final long size;
+
+        CachedDocument(NodeInfo root, long modified, long size) {
+            this.root = root;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
+    private final Processor processor;
+    private final ResourceResolver fallback;
+    private final Map<Path, CachedDocument> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create the cache and install it as the processor's resource resolver.
+     */
+    public DocumentCache(Processor processor, int maxEntries) {
+        this.processor = processor;
+        Configuration config = processor.getUnderlyingConfiguration();
+        this.fallback = config.getResourceResolver();
+        this.entries = new LinkedHashMap<Path, CachedDocument>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, CachedDocument> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        config.setResourceResolver(this);
+    }
+
+    @Override
+    public Source resolve(ResourceRequest request) throws XPathException {
+        Path file = ResourceRequest.XML_NATURE.equals(request.nature) ? StylesheetCache.toPath(request.uri) : null;
+        BasicFileAttributes attrs = null;
+        if (file != null) {
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (Exception e) {
+                // Missing/unreadable - let the default resolver report it
+            }
+        }
+        if (attrs == null || !attrs.isRegularFile()) {
+            return fallback != null ? fallback.resolve(request) : null;
+        }
+
+        long modified = attrs.lastModifiedTime().toMillis();
+        CachedDocument entry;
+        synchronized (entries) {
+            entry = entries.get(file);
+        }
+        if (entry != null && entry.modified == modified && entry.size == attrs.size()) {
+            hits.incrementAndGet();
+            return entry.root;
+        }
+
+        // Parse outside the lock; a concurrent duplicate parse is harmless
+        NodeInfo root;
+        try {
+            root = processor.newDocumentBuilder().build(file.toFile()).getUnderlyingNode();
+        } catch (SaxonApiException e) {
+            throw XPathException.makeXPathException(e);
+        }
+        (entry == null ? misses : reloads).incrementAndGet();
+        synchronized (entries) {
+            entries.put(file, new CachedDocument(root, modified, attrs.size()));
+        }
+        return root;
+    }
+
+    public String getStatistics() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return String.format("Document cache: %d hit(s), %d miss(es), %d reload(s), %d eviction(s), %d cached",
+            hits.get(), misses.get(), reloads.get(), evictions.get(), size);
+    }
+}
@@ -0,0 +1,128 @@
+package saxx;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.Traceable;
+import net.sf.saxon.trans.Mode;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Keeps the last N trace events in a preallocated ring buffer and renders them
+ * in the CompactTraceListener format only when asked to (i.e. after a failure).
+ * Recording an event stores references and a depth; no strings are built.
+ */
+public class FlightRecorderTraceListener implements TraceListener {
+    private static final byte ENTER = 1;
+    private static final byte LEAVE = 2;
+    private static final byte ITEM = 3;
+
+    private final int size;
+    private final byte[] kinds;
+    private final int[] depths;
+    private final Traceable[] traceables;
+    private final Item[] items;
+    private int pos = 0;
+    private long count = 0;
+    private int depth = 0;
+
+    public FlightRecorderTraceListener(int size) {
+        this.size = Math.max(size, 1);
+        this.kinds = new byte[this.size];
+        this.depths = new int[this.size];
+        this.traceables = new Traceable[this.size];
+        this.items = new Item[this.size];
+    }
+
+    private void record(byte kind, Traceable traceable, Item item) {
+        kinds[pos] = kind;
+        depths[pos] = depth;
+        traceables[pos] = traceable;
+        items[pos] = item;
+        if (++pos == size) pos = 0;
+        count++;
+    }
+
+    /**
+     * Discard recorded events, e.g. before the next file of a batch.
+     */
+    public void reset() {
+        Arrays.fill(traceables, null);
+        Arrays.fill(items, null);
+        pos = 0;
+        count = 0;
+        depth = 0;
+    }
+
+    /**
+     * Render the buffered events, oldest first, so the failing instruction is last.
+     */
+    public void dump(PrintStream out) {
+        int n = (int) Math.min(count, size);
+        if (n == 0) return;
+        int start = count > size ? pos : 0;
+        int minDepth = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minDepth = Math.min(minDepth, depths[(start + i) % size]);
+        }
+
+        out.printf("Last %d trace event(s) before failure:%n", n);
+        CompactTraceListener listener = new CompactTraceListener(out);
+        // A leading leave() decrements before printing, so start one level deeper
+        listener.setDepth(depths[start] - minDepth + (kinds[start] == LEAVE ? 1 : 0));
+        for (int i = 0; i < n; i++) {
+            int idx = (start + i) % size;
+            switch (kinds[idx]) {
+                case ENTER:
+                    listener.enter(traceables[idx], items[idx], null);
+                    break;
+                case LEAVE:
+                    listener.leave(traceables[idx]);
+                    break;
+                case ITEM:
+                    listener.startCurrentItem(items[idx]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        listener.close();
+    }
+
+    @Override
+    public void setOutputDestination(net.sf.saxon.lib.Logger stream) {}
+
+    @Override
+    public void open(net.sf.saxon.Controller controller) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void enter(Traceable traceable, Map<String, Object> properties, XPathContext context) {
+        record(ENTER, traceable, context.getContextItem());
+        depth++;
+    }
+
+    @Override
+    public void leave(Traceable traceable) {
+        if (depth > 0) depth--;
+        record(LEAVE, traceable, null);
+    }
+
+    @Override
+    public void startCurrentItem(Item item) {
+        record(ITEM, null, item);
+    }
+
+    @Override
+    public void endCurrentItem(Item item) {}
+
+    @Override
+    public void startRuleSearch() {}
+
+    @Override
+    public void endRuleSearch(Object rule, Mode mode, Item item) {}
+}
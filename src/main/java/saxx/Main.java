@@ -5,38 +5,57 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
-import net.sf.saxon.Configuration;
-import net.sf.saxon.lib.Feature;
+import net.sf.saxon.expr.parser.OptimizerOptions;
+import net.sf.saxon.lib.TraceListener;
 import net.sf.saxon.s9api.*;
+import net.sf.saxon.str.StringView;
+import net.sf.saxon.trace.TraceEventMulticaster;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.StringValue;
+import saxx.api.CompiledStylesheet;
+import saxx.api.SaxxEngine;
 import javax.xml.transform.stream.StreamSource;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.*;
 import java.util.stream.Collectors;
 
 @Command(
     name = "saxx",
     mixinStandardHelpOptions = true,
-    version = "saxx 0.1.0",
+    version = Main.VERSION,
     description = "XSLT validation and transformation tool powered by Saxon"
 )
 public class Main implements Callable<Integer> {
-    private static final Path GLOBAL_MOCKS = getGlobalMocksPath();
+    static final String VERSION = "saxx 0.1.0";
+    private static final Path DEFAULT_CACHE_DIR = getDefaultCacheDir();
 
-    private static Path getGlobalMocksPath() {
+    private static Path getDefaultCacheDir() {
         String os = System.getProperty("os.name").toLowerCase();
         if (os.contains("win")) {
-            String appData = System.getenv("APPDATA");
-            if (appData != null) {
-                return Paths.get(appData, "saxx", "mocks.json");
+            String localAppData = System.getenv("LOCALAPPDATA");
+            if (localAppData != null) {
+                return Paths.get(localAppData, "saxx", "cache");
             }
         }
-        return Paths.get(System.getProperty("user.home"), ".config", "saxx", "mocks.json");
+        return Paths.get(System.getProperty("user.home"), ".cache", "saxx", "stylesheets");
     }
 
     @Command(name = "check", description = "Check/compile XSLT stylesheets")
@@ -54,30 +73,74 @@ public class Main implements Callable<Integer> {
         @Option(names = {"--ignore-extension-elements"}, description = "Treat unknown extension elements (e.g., <service:init/>) as warnings, not errors")
         boolean ignoreExtensionElements,
         @Option(names = {"--trace"}, description = "Trace XSLT execution (optionally to file)", arity = "0..1", fallbackValue = "")
-        String traceFile
+        String traceFile,
+        @Option(names = {"--trace-format"}, description = "Trace format: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})", defaultValue = "compact")
+        TraceFormat traceFormat,
+        @Option(names = {"--coverage"}, paramLabel = "FILE", description = "Record stylesheet line coverage into an lcov FILE (merged with FILE if it exists)")
+        Path coverageFile,
+        @Option(names = {"--trace-on-error"}, paramLabel = "N", description = "Keep the last N trace events in memory and print them only if the transform fails")
+        int traceOnError,
+        @Option(names = {"--report"}, arity = "2", paramLabel = "FORMAT FILE", description = "Write per-file results as json or junit to FILE")
+        String[] report,
+        @Option(names = {"--slowest"}, paramLabel = "N", description = "List the N slowest files (compile + deep transform) in the summary")
+        int slowest,
+        @Option(names = {"--timeout"}, paramLabel = "SECONDS", description = "Fail a deep-check transform that runs longer than SECONDS")
+        double timeout,
+        @Option(names = {"--max-output-bytes"}, paramLabel = "N", description = "Fail a deep-check transform that writes more than N bytes of output")
+        long maxOutputBytes,
+        @Option(names = {"--doc-cache"}, paramLabel = "N", description = "Keep up to N documents loaded by doc()/document() parsed in memory and reuse them across transforms")
+        int docCache,
+        @Option(names = {"--perf-lint"}, description = "Report expensive patterns: // scans in loops, lookups that need xsl:key, count(preceding-sibling::*), recursive string building")
+        boolean perfLint
     ) throws Exception {
-        Processor processor = new Processor(false);
-        loadGlobalMocks(processor);
-        if (mocksFile != null) {
-            registerMocks(processor, mocksFile);
+        if (report != null && !report[0].equals("json") && !report[0].equals("junit")) {
+            throw new IllegalArgumentException("Unknown report format (expected json or junit): " + report[0]);
         }
 
+        SaxxEngine engine = newEngine(mocksFile);
+        Processor processor = engine.getProcessor();
+        DocumentCache documents = docCache > 0 ? engine.enableDocumentCache(docCache) : null;
+
         boolean trace = traceFile != null;
         PrintStream traceOut = null;
         if (trace) {
-            processor.getUnderlyingConfiguration().setCompileWithTracing(true);
-            processor.getUnderlyingConfiguration()
-                .setBooleanProperty(Feature.RETAIN_NODE_FOR_DIAGNOSTICS, true);
+            engine.enableTracing();
             traceOut = traceFile.isEmpty() ? System.err : new PrintStream(traceFile);
         }
 
-        XsltCompiler compiler = processor.newXsltCompiler();
+        // Chrome traces are one JSON array, so a single listener spans all checked files
+        TraceListener sharedTrace = null;
+        if (trace && traceFormat == TraceFormat.chrome) {
+            sharedTrace = new ChromeTraceListener(traceWriter(traceOut));
+            traceOut = null;
+        }
+        CoverageListener coverage = null;
+        if (coverageFile != null) {
+            coverage = newCoverage(engine, coverageFile);
+            sharedTrace = TraceEventMulticaster.add(sharedTrace, coverage);
+        }
+        FlightRecorderTraceListener flightRecorder = null;
+        if (traceOnError > 0) {
+            engine.enableTracing();
+            flightRecorder = new FlightRecorderTraceListener(traceOnError);
+            sharedTrace = TraceEventMulticaster.add(sharedTrace, flightRecorder);
+        }
 
-        int errors = 0;
-        int warnings = 0;
-        int checked = 0;
-        int skipped = 0;
-        int[] result;  // [0] = error (0 or 1), [1] = warning (0 or 1)
+        deepTimeoutMillis = (long) (timeout * 1000);
+        if (deepTimeoutMillis > 0) {
+            // Timeouts cancel at the next traced instruction, so the hooks must be compiled in
+            engine.enableTracing();
+        }
+        deepMaxOutputBytes = maxOutputBytes;
+
+        XsltCompiler compiler = processor.newXsltCompiler();
+        XsltCompiler lintCompiler = null;
+        if (perfLint) {
+            // The lint reads the tree as written; the optimizer would lift and rewrite the loops it looks for
+            lintCompiler = processor.newXsltCompiler();
+            lintCompiler.getUnderlyingCompilerInfo().setOptimizerOptions(new OptimizerOptions(0));
+        }
+        CheckReport results = new CheckReport();
 
         if (Files.isDirectory(path)) {
             int maxDepth = recursive ? Integer.MAX_VALUE : 1;
@@ -94,21 +157,29 @@ public class Main implements Callable<Integer> {
             for (Path file : files) {
                 if (fragments.contains(file.toAbsolutePath().normalize())) {
                     System.out.println("SKIP (fragment): " + file);
-                    skipped++;
+                    CheckReport.Entry entry = new CheckReport.Entry(file);
+                    entry.status = CheckReport.Status.SKIPPED;
+                    results.add(entry);
                     continue;
                 }
-                result = checkFile(processor, compiler, file, deep, ignoreExtensionElements, traceOut);
-                errors += result[0];
-                warnings += result[1];
-                checked++;
+                CheckReport.Entry entry = checkFile(processor, compiler, lintCompiler, file, deep, ignoreExtensionElements, traceOut, sharedTrace, coverage, flightRecorder);
+                results.add(entry);
+                PerfLint.print(entry.perfLint, System.out);
             }
         } else {
-            result = checkFile(processor, compiler, path, deep, ignoreExtensionElements, traceOut);
-            errors += result[0];
-            warnings += result[1];
-            checked++;
+            CheckReport.Entry entry = checkFile(processor, compiler, lintCompiler, path, deep, ignoreExtensionElements, traceOut, sharedTrace, coverage, flightRecorder);
+            results.add(entry);
+            PerfLint.print(entry.perfLint, System.out);
         }
 
+        int errors = results.count(CheckReport.Status.FAIL);
+        int warnings = results.count(CheckReport.Status.WARNING);
+        int skipped = results.count(CheckReport.Status.SKIPPED);
+        int checked = errors + warnings + results.count(CheckReport.Status.OK);
+
+        if (slowest > 0) {
+            results.printSlowest(System.out, slowest);
+        }
         StringBuilder summary = new StringBuilder();
         summary.append(String.format("%nChecked %d file(s), %d error(s)", checked, errors));
         if (warnings > 0) {
@@ -117,7 +188,27 @@ public class Main implements Callable<Integer> {
         if (skipped > 0) {
             summary.append(String.format(", %d skipped (fragments)", skipped));
         }
+        if (perfLint) {
+            summary.append(String.format(", %d perf lint finding(s)", results.countPerfLint()));
+        }
         System.out.println(summary);
+        if (documents != null) {
+            System.err.println(documents.getStatistics());
+        }
+        if (sharedTrace != null) {
+            sharedTrace.close();
+        }
+        if (coverage != null) {
+            writeCoverage(coverage, coverageFile);
+        }
+        if (report != null) {
+            Path reportFile = Paths.get(report[1]);
+            if (report[0].equals("json")) {
+                results.writeJson(reportFile);
+            } else {
+                results.writeJunit(reportFile);
+            }
+        }
         return errors > 0 ? 1 : 0;
     }
 
@@ -141,105 +232,26 @@ public class Main implements Callable<Integer> {
         return fragments;
     }
 
-    private Set<String> ignoredElements = new HashSet<>();
+    private Set<String> ignoredElements = Collections.emptySet();
 
     /**
-     * Register mock extension functions from a JSON file.
-     * JSON format:
-     * {
-     *   "namespace-uri": {
-     *     "_elements": ["init", "otherElement"],  // optional: list of extension elements to ignore
-     *     "functionName": returnValue,            // mock function returns
-     *     ...
-     *   },
-     *   ...
-     * }
-     * Where returnValue can be: null, true, false, number, or "string"
-     *
-     * The "_elements" array lists extension element local names that should be
-     * treated as warnings instead of errors during deep checks.
+     * An engine with the global mocks and the command's --mocks file registered.
+     * Unlike the library, the command line creates an empty global mocks file
+     * on first use, and only warns if it cannot be loaded.
      */
-    private void registerMocks(Processor processor, Path mocksFile) throws Exception {
-        String json = Files.readString(mocksFile);
-        Configuration config = processor.getUnderlyingConfiguration();
-
-        // Simple JSON parsing for our specific format
-        Pattern nsPattern = Pattern.compile("\"([^\"]+)\"\\s*:\\s*\\{([^}]+)\\}");
-        Pattern fnPattern = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(null|true|false|\"[^\"]*\"|[-+]?\\d+\\.?\\d*)");
-        Pattern elemListPattern = Pattern.compile("\"_elements\"\\s*:\\s*\\[([^\\]]+)\\]");
-        Pattern elemNamePattern = Pattern.compile("\"([^\"]+)\"");
-
-        Matcher nsMatcher = nsPattern.matcher(json);
-        int mockCount = 0;
-        int elemCount = 0;
-
-        while (nsMatcher.find()) {
-            String namespace = nsMatcher.group(1);
-            String content = nsMatcher.group(2);
-
-            // Check for _elements: ["elem1", "elem2"] directive
-            Matcher elemListMatcher = elemListPattern.matcher(content);
-            if (elemListMatcher.find()) {
-                String elemList = elemListMatcher.group(1);
-                Matcher elemNameMatcher = elemNamePattern.matcher(elemList);
-                while (elemNameMatcher.find()) {
-                    ignoredElements.add(elemNameMatcher.group(1));
-                }
-                // FORK FEATURE: Register extension element factory for this namespace (no-op elements)
-                // See saxon-work/ENHANCEMENTS.md for documentation
-                config.registerExtensionElementFactory(namespace,
-                    localName -> new net.sf.saxon.style.NoOpExtensionElement());
-                elemCount++;
-            }
-
-            Matcher fnMatcher = fnPattern.matcher(content);
-            while (fnMatcher.find()) {
-                String funcName = fnMatcher.group(1);
-                if (funcName.startsWith("_")) {
-                    continue;  // Skip directives like _elements
-                }
-                String valueStr = fnMatcher.group(2);
-
-                Object value = parseJsonValue(valueStr);
-                config.registerExtensionFunction(new MockExtensionFunction(namespace, funcName, value));
-                mockCount++;
-            }
-        }
-
-    }
-
-    private void loadGlobalMocks(Processor processor) {
-        if (!Files.exists(GLOBAL_MOCKS)) {
-            try {
-                Files.createDirectories(GLOBAL_MOCKS.getParent());
-                Files.writeString(GLOBAL_MOCKS, "{}\n");
-                System.err.println("Created global mocks file: " + GLOBAL_MOCKS);
-            } catch (Exception e) {
-                // Ignore - may not have write permission
-            }
-            return;
-        }
+    private SaxxEngine newEngine(Path mocksFile) throws IOException {
+        SaxxEngine engine = new SaxxEngine();
+        Mocks.createGlobalFile();
         try {
-            registerMocks(processor, GLOBAL_MOCKS);
+            engine.loadGlobalMocks();
         } catch (Exception e) {
-            System.err.println("Warning: failed to load global mocks from " + GLOBAL_MOCKS + ": " + e.getMessage());
+            System.err.println("Warning: failed to load global mocks from " + Mocks.GLOBAL_FILE + ": " + e.getMessage());
         }
-    }
-
-    private Object parseJsonValue(String valueStr) {
-        if (valueStr.equals("null")) {
-            return null;
-        } else if (valueStr.equals("true")) {
-            return Boolean.TRUE;
-        } else if (valueStr.equals("false")) {
-            return Boolean.FALSE;
-        } else if (valueStr.startsWith("\"") && valueStr.endsWith("\"")) {
-            return valueStr.substring(1, valueStr.length() - 1);
-        } else if (valueStr.contains(".")) {
-            return Double.parseDouble(valueStr);
-        } else {
-            return Long.parseLong(valueStr);
+        if (mocksFile != null) {
+            engine.addMocks(mocksFile);
         }
+        ignoredElements = engine.getIgnoredElements();
+        return engine;
     }
 
     private static final Pattern ROOT_TEMPLATE_PATTERN = Pattern.compile(
@@ -268,13 +280,37 @@ public class Main implements Callable<Integer> {
         return "<_/>";
     }
 
-    private static final int[] OK = {0, 0};
-    private static final int[] ERROR = {1, 0};
-    private static final int[] WARNING = {0, 1};
-
-    private int[] checkFile(Processor processor, XsltCompiler compiler, Path file, boolean deep, boolean ignoreExtensionElements, PrintStream traceOut) {
+    private CheckReport.Entry checkFile(Processor processor, XsltCompiler compiler, XsltCompiler lintCompiler, Path file, boolean deep, boolean ignoreExtensionElements, PrintStream traceOut, TraceListener sharedTrace, CoverageListener coverage, FlightRecorderTraceListener flightRecorder) {
+        CheckReport.Entry entry = new CheckReport.Entry(file);
+        // A failure dumps only this file's events, also when it fails before the deep transform
+        if (flightRecorder != null) {
+            flightRecorder.reset();
+        }
+        long allocatedAtStart = allocatedBytes();
+        long start = System.nanoTime();
         try {
             XsltExecutable executable = compiler.compile(new StreamSource(file.toFile()));
+            entry.compileNanos = System.nanoTime() - start;
+            if (allocatedAtStart >= 0) {
+                entry.allocatedBytes = allocatedBytes() - allocatedAtStart;
+            }
+            try {
+                entry.modules = StylesheetWalker.modules(executable.getUnderlyingCompiledStylesheet()).size();
+            } catch (XPathException e) {
+                // Only a metric; the stylesheet itself compiled
+            }
+            if (coverage != null) {
+                coverage.addStylesheet(executable.getUnderlyingCompiledStylesheet());
+            }
+            if (lintCompiler != null) {
+                // Findings never change the file's status, and neither does a lint that fails
+                try {
+                    XsltExecutable unoptimized = lintCompiler.compile(new StreamSource(file.toFile()));
+                    entry.perfLint = new PerfLint().lint(unoptimized.getUnderlyingCompiledStylesheet());
+                } catch (Exception e) {
+                    System.err.println("NOTE: perf lint skipped for " + file + ": " + e.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+            }
 
             if (deep) {
                 // Attempt a transform with minimal input to catch runtime errors
@@ -287,21 +323,53 @@ public class Main implements Callable<Integer> {
                 CompactTraceListener traceListener = null;
                 if (traceOut != null) {
                     traceListener = new CompactTraceListener(traceOut);
-                    transformer.setTraceListener(traceListener);
                 }
-                ByteArrayOutputStream devNull = new ByteArrayOutputStream();
-                Serializer serializer = processor.newSerializer(devNull);
+                // The shared listeners outlive this transform; check closes them after the last file
+                TraceListener listener = TraceEventMulticaster.add(traceListener,
+                    sharedTrace != null ? new SharedTraceListener(sharedTrace) : null);
+                // A timed-out transform is stopped at its next instruction; one that still
+                // does not stop is cut off from the shared listeners
+                CancellingTraceListener canceller = null;
+                DetachableTraceListener detachable = null;
+                if (deepTimeoutMillis > 0) {
+                    canceller = new CancellingTraceListener();
+                    detachable = listener != null ? new DetachableTraceListener(listener) : null;
+                    listener = TraceEventMulticaster.add(canceller, detachable);
+                }
+                if (listener != null) {
+                    transformer.setTraceListener(listener);
+                }
+                BoundedOutputStream sink = new BoundedOutputStream(deepMaxOutputBytes);
+                Serializer serializer = processor.newSerializer(sink);
                 StreamSource minimalInput = new StreamSource(new StringReader(minimalXml));
-                transformer.transform(minimalInput, serializer);
+                start = System.nanoTime();
+                try {
+                    runBounded(() -> {
+                        // Measured on the thread that runs the transform (a worker when --timeout is set)
+                        long allocated = allocatedBytes();
+                        try {
+                            transformer.transform(minimalInput, serializer);
+                        } finally {
+                            if (allocated >= 0) {
+                                entry.allocatedBytes += allocatedBytes() - allocated;
+                            }
+                        }
+                    }, sink, canceller != null ? canceller::cancel : null, detachable != null ? detachable::detach : null);
+                } finally {
+                    // Failed and timed-out transforms are the ones reports most need to time
+                    entry.transformNanos = System.nanoTime() - start;
+                }
                 if (traceListener != null) {
                     traceListener.close();
                 }
             }
 
             System.out.println("OK: " + file);
-            return OK;
+            return entry;
         } catch (SaxonApiException e) {
             String msg = e.getMessage();
+            entry.status = CheckReport.Status.FAIL;
+            entry.message = msg;
             // Check if this is an extension element error that should be treated as warning
             if (msg != null && msg.contains("Unknown extension instruction")) {
                 boolean shouldIgnore = ignoreExtensionElements;
@@ -318,7 +386,9 @@ public class Main implements Callable<Integer> {
                 if (shouldIgnore) {
                     // Silently pass - element is mocked/ignored
                     System.out.println("OK: " + file);
-                    return OK;
+                    entry.status = CheckReport.Status.OK;
+                    entry.message = null;
+                    return entry;
                 }
                 // Show hint about adding to mocks
                 System.err.println("FAIL: " + file);
@@ -326,7 +396,10 @@ public class Main implements Callable<Integer> {
                 if (localName != null) {
                     System.err.println("  Hint: to ignore this element, add \"" + localName + "\" to _elements array in mocks JSON");
                 }
-                return ERROR;
+                if (flightRecorder != null) {
+                    flightRecorder.dump(System.err);
+                }
+                return entry;
             }
             System.err.println("FAIL: " + file);
             if (msg != null) {
@@ -336,64 +409,700 @@ public class Main implements Callable<Integer> {
             if (cause != null && cause.getMessage() != null && !cause.getMessage().equals(msg)) {
                 System.err.println("  " + cause.getMessage());
             }
-            return ERROR;
+            if (flightRecorder != null) {
+                flightRecorder.dump(System.err);
+            }
+            return entry;
         } catch (Exception e) {
             System.err.println("FAIL: " + file);
             System.err.println("  " + e.getClass().getSimpleName() + ": " + e.getMessage());
-            return ERROR;
+            entry.status = CheckReport.Status.FAIL;
+            entry.message = e.getClass().getSimpleName() + ": " + e.getMessage();
+            return entry;
+        }
+    }
+
+    // Per-run limits for deep-check transforms (0 = unlimited)
+    private long deepTimeoutMillis = 0;
+    private long deepMaxOutputBytes = 0;
+    private ExecutorService deepWorker;
+    private static final long CANCEL_GRACE_MILLIS = 2000;
+
+    interface TransformAction {
+        void run() throws SaxonApiException;
+    }
+
+    /**
+     * Run a transform writing to sink within the deep-check limits. On timeout the sink
+     * and cancel (a CancellingTraceListener) stop the transform at its next output or
+     * instruction, and this waits until it has. As a last resort, one that still does
+     * not stop within the grace period is abandoned on its daemon thread (after
+     * onAbandon runs) and later files get a fresh worker.
+     * Limit violations are reported as SaxonApiExceptions, like any other failure.
+     */
+    private void runBounded(TransformAction action, BoundedOutputStream sink, Runnable cancel, Runnable onAbandon) throws SaxonApiException {
+        try {
+            if (deepTimeoutMillis <= 0) {
+                action.run();
+                return;
+            }
+            if (deepWorker == null) {
+                deepWorker = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "saxx-deep-check");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            // Future.cancel() completes the future at once, so the task signals its own end
+            CountDownLatch finished = new CountDownLatch(1);
+            Future<?> future = deepWorker.submit(() -> {
+                try {
+                    action.run();
+                } finally {
+                    finished.countDown();
+                }
+                return null;
+            });
+            try {
+                future.get(deepTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                sink.cancel();
+                if (cancel != null) {
+                    cancel.run();
+                }
+                future.cancel(true);
+                boolean stopped = false;
+                try {
+                    stopped = finished.await(CANCEL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!stopped) {
+                    // e.g. stuck inside a single instruction: give up on the thread and start a new worker
+                    if (onAbandon != null) {
+                        onAbandon.run();
+                    }
+                    deepWorker.shutdownNow();
+                    deepWorker = null;
+                }
+                throw new SaxonApiException(String.format("Timeout: transform cancelled after %.1f s", deepTimeoutMillis / 1000.0));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SaxonApiException) {
+                    throw (SaxonApiException) e.getCause();
+                }
+                throw new SaxonApiException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SaxonApiException(e);
+            }
+        } catch (SaxonApiException e) {
+            if (sink.isLimitExceeded()) {
+                throw new SaxonApiException("Output limit: transform wrote more than " + deepMaxOutputBytes + " bytes");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
         }
+        return -1;
     }
 
     @Command(name = "transform", description = "Transform XML using XSLT")
     int transform(
-        @Option(names = {"-s", "--stylesheet"}, required = true, description = "XSLT stylesheet")
-        Path stylesheet,
+        @Option(names = {"-s", "--stylesheet"}, required = true, description = "XSLT stylesheet (repeat with --fanout)")
+        List<Path> stylesheets,
         @Parameters(paramLabel = "INPUT", description = "Input XML file")
         Path input,
         @Option(names = {"-o", "--output"}, description = "Output file (stdout if omitted)")
         Path output,
+        @Option(names = {"--fanout"}, description = "Parse INPUT once and run every -s stylesheet on it concurrently, writing one result per stylesheet to -O")
+        boolean fanout,
+        @Option(names = {"-O", "--output-dir"}, paramLabel = "DIR", description = "Output directory for --fanout")
+        Path outputDir,
         @Option(names = {"--trace"}, description = "Trace XSLT execution (optionally to file)", arity = "0..1", fallbackValue = "")
         String traceFile,
+        @Option(names = {"--trace-format"}, description = "Trace format: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})", defaultValue = "compact")
+        TraceFormat traceFormat,
         @Option(names = {"--mocks"}, description = "JSON file with mock extension function definitions")
-        Path mocksFile
+        Path mocksFile,
+        @Option(names = {"--coverage"}, paramLabel = "FILE", description = "Record stylesheet line coverage into an lcov FILE (merged with FILE if it exists)")
+        Path coverageFile,
+        @Option(names = {"--trace-on-error"}, paramLabel = "N", description = "Keep the last N trace events in memory and print them only if the transform fails")
+        int traceOnError,
+        @Option(names = {"--cache"}, paramLabel = "DIR", description = "Reuse compiled stylesheets from an on-disk cache (optionally in DIR)", arity = "0..1", fallbackValue = "")
+        String cacheDir,
+        @Option(names = {"--mem-stats"}, description = "Report the input tree's node count and approximate memory footprint on stderr")
+        boolean memStats
     ) throws Exception {
-        Processor processor = new Processor(false);
-        loadGlobalMocks(processor);
-        if (mocksFile != null) {
-            registerMocks(processor, mocksFile);
+        if (fanout) {
+            if (outputDir == null || output != null) {
+                throw new IllegalArgumentException("--fanout writes to an output directory: use -O DIR instead of -o");
+            }
+            if (traceFile != null || traceOnError > 0) {
+                throw new IllegalArgumentException("--trace and --trace-on-error are not supported with --fanout");
+            }
+            return fanout(stylesheets, input, outputDir, mocksFile, coverageFile, cacheDir, memStats);
         }
+        if (stylesheets.size() > 1) {
+            throw new IllegalArgumentException("Several stylesheets given: add --fanout to run them all on the input");
+        }
+        Path stylesheet = stylesheets.get(0);
+
+        SaxxEngine engine = newEngine(mocksFile);
+        Processor processor = engine.getProcessor();
 
         boolean trace = traceFile != null;
         PrintStream traceOut = null;
         if (trace) {
-            processor.getUnderlyingConfiguration().setCompileWithTracing(true);
-            processor.getUnderlyingConfiguration()
-                .setBooleanProperty(Feature.RETAIN_NODE_FOR_DIAGNOSTICS, true);
+            engine.enableTracing();
             traceOut = traceFile.isEmpty() ? System.err : new PrintStream(traceFile);
         }
 
-        XsltCompiler compiler = processor.newXsltCompiler();
-        XsltExecutable executable = compiler.compile(new StreamSource(stylesheet.toFile()));
+        CoverageListener coverage = coverageFile != null ? newCoverage(engine, coverageFile) : null;
+        FlightRecorderTraceListener flightRecorder = null;
+        if (traceOnError > 0) {
+            engine.enableTracing();
+            flightRecorder = new FlightRecorderTraceListener(traceOnError);
+        }
+
+        if (cacheDir != null) {
+            engine.setStylesheetCacheDir(cacheDir.isEmpty() ? DEFAULT_CACHE_DIR : Paths.get(cacheDir));
+        }
+        XsltExecutable executable = engine.compile(stylesheet).getExecutable();
         Xslt30Transformer transformer = executable.load30();
+        if (coverage != null) {
+            coverage.addStylesheet(executable.getUnderlyingCompiledStylesheet());
+        }
 
-        CompactTraceListener traceListener = null;
+        TraceListener traceListener = null;
         if (trace) {
-            traceListener = new CompactTraceListener(traceOut);
-            transformer.setTraceListener(traceListener);
+            traceListener = traceFormat == TraceFormat.chrome
+                ? new ChromeTraceListener(traceWriter(traceOut))
+                : new CompactTraceListener(traceOut);
+        }
+        TraceListener listener = TraceEventMulticaster.add(
+            TraceEventMulticaster.add(traceListener, coverage), flightRecorder);
+        if (listener != null) {
+            transformer.setTraceListener(listener);
         }
 
         Serializer serializer = output != null
             ? processor.newSerializer(output.toFile())
             : processor.newSerializer(System.out);
 
-        transformer.transform(new StreamSource(input.toFile()), serializer);
+        try {
+            // Whitespace is stripped while building, as far as the stylesheet's xsl:strip-space allows
+            long start = System.nanoTime();
+            XdmNode doc = TreeLoader.load(processor, input, executable.getWhitespaceStrippingPolicy());
+            if (memStats) {
+                TreeLoader.printStats(doc, input, System.nanoTime() - start, System.err);
+            }
+            transformer.setGlobalContextItem(doc);
+            transformer.applyTemplates(doc, serializer);
+        } catch (SaxonApiException e) {
+            if (flightRecorder != null) {
+                flightRecorder.dump(System.err);
+            }
+            throw e;
+        } finally {
+            // Also after a failure: the trace up to the error is the useful part
+            if (traceListener != null) {
+                traceListener.close();
+            }
+            if (coverage != null) {
+                writeCoverage(coverage, coverageFile);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Run several stylesheets on one input tree concurrently, one output file each.
+     */
+    private int fanout(List<Path> stylesheets, Path input, Path outputDir, Path mocksFile, Path coverageFile,
+                       String cacheDir, boolean memStats) throws Exception {
+        SaxxEngine engine = newEngine(mocksFile);
+        CoverageListener coverage = null;
+        if (coverageFile != null) {
+            coverage = newCoverage(engine, coverageFile);
+            CoverageListener shared = coverage;
+            engine.setTraceListenerFactory(() -> shared);
+        }
+        if (cacheDir != null) {
+            engine.setStylesheetCacheDir(cacheDir.isEmpty() ? DEFAULT_CACHE_DIR : Paths.get(cacheDir));
+        }
+        Files.createDirectories(outputDir);
+
+        // Built once without stripping: Saxon applies each stylesheet's xsl:strip-space as a view
+        long start = System.nanoTime();
+        XdmNode doc = TreeLoader.load(engine.getProcessor(), input, WhitespaceStrippingPolicy.NONE);
+        if (memStats) {
+            TreeLoader.printStats(doc, input, System.nanoTime() - start, System.err);
+        }
+        System.err.printf("parse    %-40s %8.1f ms%n", input.getFileName(), millisSince(start));
+
+        // Output file stems, prefixed with the stage number when two stylesheets share a name
+        List<String> stems = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < stylesheets.size(); i++) {
+            String stem = stylesheets.get(i).getFileName().toString().replaceFirst("\\.[^.]*$", "");
+            stems.add(seen.add(stem) ? stem : (i + 1) + "-" + stem);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+            Math.min(stylesheets.size(), Runtime.getRuntime().availableProcessors()));
+        int failed = 0;
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < stylesheets.size(); i++) {
+                Path stylesheet = stylesheets.get(i);
+                String stem = stems.get(i);
+                CoverageListener stageCoverage = coverage;
+                futures.add(pool.submit(() -> {
+                    long compileStart = System.nanoTime();
+                    CompiledStylesheet compiled = engine.compile(stylesheet);
+                    double compileMs = millisSince(compileStart);
+                    if (stageCoverage != null) {
+                        stageCoverage.addStylesheet(compiled.getExecutable().getUnderlyingCompiledStylesheet());
+                    }
+                    Path out = outputDir.resolve(stem + outputExtension(compiled.getExecutable()));
+                    long transformStart = System.nanoTime();
+                    try {
+                        compiled.transform(doc, engine.getProcessor().newSerializer(out.toFile()));
+                    } catch (SaxonApiException e) {
+                        Files.deleteIfExists(out);  // no partial result for a failed stylesheet
+                        throw e;
+                    }
+                    return String.format("%-40s -> %-30s %8.1f ms (compile %.1f ms)",
+                        stylesheet.getFileName(), out.getFileName(), millisSince(transformStart), compileMs);
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    System.err.println(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println("FAIL: " + stylesheets.get(i));
+                    System.err.println("  " + e.getCause().getMessage());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (coverage != null) {
+            writeCoverage(coverage, coverageFile);
+        }
+        return failed > 0 ? 1 : 0;
+    }
+
+    private static String outputExtension(XsltExecutable executable) {
+        String method = executable.getUnderlyingCompiledStylesheet()
+            .getDeclaredSerializationProperties().getProperty("method");
+        if (method == null) return ".xml";
+        switch (method) {
+            case "html": return ".html";
+            case "xhtml": return ".xhtml";
+            case "text": return ".txt";
+            case "json": return ".json";
+            default: return ".xml";
+        }
+    }
+
+    @Command(name = "pipeline", description = "Chain several XSLT stylesheets, passing each result to the next as an in-memory tree")
+    int pipeline(
+        @Option(names = {"-s", "--stylesheet"}, required = true, description = "XSLT stylesheet (repeat for each stage, applied in order)")
+        List<Path> stylesheets,
+        @Parameters(paramLabel = "INPUT", description = "Input XML file")
+        Path input,
+        @Option(names = {"-o", "--output"}, description = "Output file (stdout if omitted)")
+        Path output,
+        @Option(names = {"-p", "--param"}, description = "Stylesheet parameter as [STAGE:]NAME=VALUE (STAGE is 1-based; without it the parameter applies to all stages)")
+        List<String> params,
+        @Option(names = {"--mocks"}, description = "JSON file with mock extension function definitions")
+        Path mocksFile,
+        @Option(names = {"--doc-cache"}, paramLabel = "N", description = "Keep up to N documents loaded by doc()/document() parsed in memory and reuse them across transforms")
+        int docCache
+    ) throws Exception {
+        SaxxEngine engine = newEngine(mocksFile);
+        Processor processor = engine.getProcessor();
+        DocumentCache documents = docCache > 0 ? engine.enableDocumentCache(docCache) : null;
+
+        List<Map<QName, XdmValue>> stageParams = parseStageParams(params, stylesheets.size());
+        XsltCompiler compiler = processor.newXsltCompiler();
+
+        long start = System.nanoTime();
+        XdmNode current = processor.newDocumentBuilder().build(input.toFile());
+        System.err.printf("parse    %-40s %8.1f ms%n", input.getFileName(), millisSince(start));
 
-        if (traceListener != null) {
-            traceListener.close();
+        for (int i = 0; i < stylesheets.size(); i++) {
+            Path stylesheet = stylesheets.get(i);
+            boolean last = i == stylesheets.size() - 1;
+
+            start = System.nanoTime();
+            XsltExecutable executable = compiler.compile(new StreamSource(stylesheet.toFile()));
+            double compileMs = millisSince(start);
+
+            Xslt30Transformer transformer = executable.load30();
+            transformer.setStylesheetParameters(stageParams.get(i));
+
+            start = System.nanoTime();
+            transformer.setGlobalContextItem(current);
+            if (last) {
+                Serializer serializer = output != null
+                    ? processor.newSerializer(output.toFile())
+                    : processor.newSerializer(System.out);
+                transformer.applyTemplates(current, serializer);
+            } else {
+                // Intermediate results stay as trees: no serialization or re-parsing between stages
+                XdmDestination result = new XdmDestination();
+                transformer.applyTemplates(current, result);
+                current = result.getXdmNode();
+            }
+            System.err.printf("stage %d  %-40s %8.1f ms (compile %.1f ms)%n",
+                i + 1, stylesheet.getFileName(), millisSince(start), compileMs);
+        }
+        if (documents != null) {
+            System.err.println(documents.getStatistics());
         }
         return 0;
     }
 
+    /**
+     * Parse [STAGE:]NAME=VALUE parameters into one map per stage.
+     * Values are passed as xs:untypedAtomic so they convert to the declared parameter type.
+     */
+    private List<Map<QName, XdmValue>> parseStageParams(List<String> params, int stages) {
+        List<Map<QName, XdmValue>> result = new ArrayList<>();
+        for (int i = 0; i < stages; i++) {
+            result.add(new HashMap<>());
+        }
+        if (params == null) {
+            return result;
+        }
+        Pattern paramPattern = Pattern.compile("(?:(\\d+):)?([^=]+)=(.*)", Pattern.DOTALL);
+        for (String param : params) {
+            Matcher m = paramPattern.matcher(param);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Invalid parameter (expected [STAGE:]NAME=VALUE): " + param);
+            }
+            String name = m.group(2).trim();
+            QName qname = name.startsWith("{") ? QName.fromClarkName(name) : new QName(name);
+            XdmValue value = new XdmAtomicValue(StringValue.makeUntypedAtomic(StringView.of(m.group(3))));
+            if (m.group(1) == null) {
+                for (Map<QName, XdmValue> stage : result) {
+                    stage.put(qname, value);
+                }
+            } else {
+                int stage = Integer.parseInt(m.group(1));
+                if (stage < 1 || stage > stages) {
+                    throw new IllegalArgumentException("Parameter stage out of range 1.." + stages + ": " + param);
+                }
+                result.get(stage - 1).put(qname, value);
+            }
+        }
+        return result;
+    }
+
+    enum TraceFormat { compact, chrome }
+
+    /**
+     * Coverage needs the tracing hooks compiled in. An existing report is loaded
+     * so that coverage accumulates across runs.
+     */
+    private CoverageListener newCoverage(SaxxEngine engine, Path coverageFile) throws Exception {
+        engine.enableTracing();
+        CoverageListener coverage = new CoverageListener();
+        if (Files.exists(coverageFile)) {
+            coverage.merge(coverageFile);
+        }
+        return coverage;
+    }
+
+    private void writeCoverage(CoverageListener coverage, Path coverageFile) throws Exception {
+        int[] counts = coverage.write(coverageFile);
+        System.err.printf("Coverage: %d/%d lines (%.1f%%) -> %s%n",
+            counts[1], counts[0], counts[0] == 0 ? 0.0 : 100.0 * counts[1] / counts[0], coverageFile);
+    }
+
+    private static Writer traceWriter(PrintStream traceOut) {
+        return new BufferedWriter(new OutputStreamWriter(traceOut, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000.0;
+    }
+
+    @Command(name = "compare", description = "A/B test two versions of a stylesheet over a corpus: output equality and timing")
+    int compare(
+        @Option(names = {"--old"}, required = true, description = "Current stylesheet")
+        Path oldStylesheet,
+        @Option(names = {"--new"}, required = true, description = "Modified stylesheet")
+        Path newStylesheet,
+        @Parameters(paramLabel = "INPUTS", arity = "1..*", description = "Input XML files or directories of *.xml files")
+        List<Path> inputs,
+        @Option(names = {"--warmup"}, paramLabel = "N", description = "Untimed runs of each version per input (default: ${DEFAULT-VALUE})", defaultValue = "3")
+        int warmup,
+        @Option(names = {"--runs"}, paramLabel = "N", description = "Timed runs of each version per input (default: ${DEFAULT-VALUE})", defaultValue = "10")
+        int runs,
+        @Option(names = {"-j", "--threads"}, paramLabel = "N", description = "Inputs compared in parallel (default: number of processors)")
+        Integer threads,
+        @Option(names = {"--threshold"}, paramLabel = "PERCENT", description = "Fail if the new version is significantly slower by more than PERCENT (default: ${DEFAULT-VALUE})", defaultValue = "5")
+        double threshold,
+        @Option(names = {"--mocks"}, description = "JSON file with mock extension function definitions")
+        Path mocksFile,
+        @Option(names = {"--doc-cache"}, paramLabel = "N", description = "Keep up to N documents loaded by doc()/document() parsed in memory and reuse them across runs and inputs")
+        int docCache
+    ) throws Exception {
+        if (runs < 2) {
+            throw new IllegalArgumentException("--runs must be at least 2 to estimate a confidence interval");
+        }
+        SaxxEngine engine = newEngine(mocksFile);
+        Processor processor = engine.getProcessor();
+        // Shared by both versions, so lookup documents are parsed once instead of in every timed run
+        DocumentCache documents = docCache > 0 ? engine.enableDocumentCache(docCache) : null;
+
+        // Compiled once; an XsltExecutable is shared safely by concurrent transforms
+        XsltCompiler compiler = processor.newXsltCompiler();
+        XsltExecutable oldExecutable = compiler.compile(new StreamSource(oldStylesheet.toFile()));
+        XsltExecutable newExecutable = compiler.compile(new StreamSource(newStylesheet.toFile()));
+        StylesheetComparison comparison = new StylesheetComparison(processor, oldExecutable, newExecutable, warmup, runs);
+
+        List<Path> files = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                files.addAll(Files.list(input)
+                    .filter(p -> p.getFileName().toString().toLowerCase().endsWith(".xml"))
+                    .sorted()
+                    .collect(Collectors.toList()));
+            } else {
+                files.add(input);
+            }
+        }
+
+        int poolSize = threads != null ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, poolSize));
+        List<StylesheetComparison.Result> results = new ArrayList<>();
+        int different = 0;
+        int failed = 0;
+        try {
+            List<Future<StylesheetComparison.Result>> futures = new ArrayList<>();
+            for (Path file : files) {
+                futures.add(pool.submit(() -> comparison.run(file)));
+            }
+            System.out.printf("%-40s %-6s %10s %10s  %s%n", "input", "output", "old ms", "new ms", "change (95% CI)");
+            for (Future<StylesheetComparison.Result> future : futures) {
+                StylesheetComparison.Result r = future.get();
+                results.add(r);
+                if (r.error != null) {
+                    failed++;
+                    System.out.printf("%-40s ERROR  %s%n", r.input, r.error);
+                    continue;
+                }
+                if (!r.equal) {
+                    different++;
+                }
+                StylesheetComparison.Estimate change = new StylesheetComparison.Estimate(r.logRatios());
+                System.out.printf("%-40s %-6s %10.2f %10.2f  %+.1f%% (%+.1f%% .. %+.1f%%)%n",
+                    r.input, r.equal ? "same" : "DIFF",
+                    StylesheetComparison.median(r.oldMillis), StylesheetComparison.median(r.newMillis),
+                    change.percent(), change.lowerPercent(), change.upperPercent());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.printf("%nCompared %d input(s): %d with different output, %d error(s)%n",
+            files.size(), different, failed);
+        if (documents != null) {
+            System.err.println(documents.getStatistics());
+        }
+        boolean slower = false;
+        if (failed < files.size()) {
+            StylesheetComparison.Estimate overall = StylesheetComparison.overall(results);
+            System.out.printf("Overall: new is %+.1f%% vs old (95%% CI %+.1f%% .. %+.1f%%), %d warm-up + %d timed run(s) each%n",
+                overall.percent(), overall.lowerPercent(), overall.upperPercent(), warmup, runs);
+            // Gate only on slowdowns the interval shows are real, not on noise
+            slower = overall.percent() > threshold && overall.lowerPercent() > 0;
+            if (slower) {
+                System.out.printf("FAIL: new version is %.1f%% slower (threshold %.1f%%)%n", overall.percent(), threshold);
+            }
+        }
+        return different > 0 || failed > 0 || slower ? 1 : 0;
+    }
+
+    @Command(name = "diff", description = "Compare two XML documents node by node in a single streaming pass")
+    int diff(
+        @Parameters(index = "0", paramLabel = "OLD", description = "Original XML file")
+        Path oldFile,
+        @Parameters(index = "1", paramLabel = "NEW", description = "Modified XML file")
+        Path newFile,
+        @Option(names = {"-w", "--ignore-whitespace"}, description = "Skip whitespace-only text and normalize whitespace in values")
+        boolean ignoreWhitespace,
+        @Option(names = {"--ignore-attr-order"}, description = "Do not report attributes that only differ in order")
+        boolean ignoreAttrOrder,
+        @Option(names = {"-n", "--max-diffs"}, description = "Stop after N differences (0 = no limit)", defaultValue = "0")
+        int maxDiffs
+    ) throws Exception {
+        XmlDiff xmlDiff = new XmlDiff(System.out, ignoreWhitespace, ignoreAttrOrder, maxDiffs);
+        int diffs = xmlDiff.compare(oldFile, newFile);
+        System.out.printf("%n%d difference(s)%n", diffs);
+        return diffs > 0 ? 1 : 0;
+    }
+
+    @Command(name = "xpath", description = "Evaluate one XPath expression over many XML files in parallel")
+    int xpath(
+        @Parameters(index = "0", paramLabel = "EXPR", description = "XPath 3.1 expression, evaluated with each document node as context item")
+        String expression,
+        @Parameters(index = "1..*", arity = "1..*", paramLabel = "FILES", description = "XML files or directories of *.xml files")
+        List<Path> inputs,
+        @Option(names = {"-n", "--namespace"}, paramLabel = "PREFIX=URI", description = "Bind a namespace prefix for EXPR (repeatable)")
+        List<String> namespaces,
+        @Option(names = {"-r", "--recursive"}, description = "Recurse into subdirectories")
+        boolean recursive,
+        @Option(names = {"-c", "--count"}, description = "Print only the number of matches per file")
+        boolean countOnly,
+        @Option(names = {"-l", "--limit"}, paramLabel = "N", description = "Stop after N matches in total")
+        long limit,
+        @Option(names = {"-j", "--threads"}, paramLabel = "N", description = "Files evaluated in parallel (default: number of processors)")
+        Integer threads
+    ) throws Exception {
+        Processor processor = new Processor(false);
+        XPathCompiler xpathCompiler = processor.newXPathCompiler();
+        if (namespaces != null) {
+            for (String binding : namespaces) {
+                int eq = binding.indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException("Invalid namespace binding (expected PREFIX=URI): " + binding);
+                }
+                xpathCompiler.declareNamespace(binding.substring(0, eq), binding.substring(eq + 1));
+            }
+        }
+        // Compiled once; an XPathExecutable is shared safely by all worker threads
+        XPathExecutable executable = xpathCompiler.compile(expression);
+
+        List<Path> files = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                files.addAll(Files.walk(input, recursive ? Integer.MAX_VALUE : 1)
+                    .filter(Files::isRegularFile)
+                    .filter(p -> p.getFileName().toString().toLowerCase().endsWith(".xml"))
+                    .sorted()
+                    .collect(Collectors.toList()));
+            } else {
+                files.add(input);
+            }
+        }
+
+        int poolSize = Math.max(1, threads != null ? threads : Runtime.getRuntime().availableProcessors());
+        long perFileCap = limit > 0 ? limit : Long.MAX_VALUE;
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false, StandardCharsets.UTF_8);
+        long matches = 0;
+        long bytes = 0;
+        int matchedFiles = 0;
+        int failed = 0;
+        long start = System.nanoTime();
+        try {
+            // Results are printed in file order; a bounded window of files in flight
+            // keeps workers busy without parsing far ahead of the output
+            Deque<Future<XPathMatches>> window = new ArrayDeque<>();
+            int next = 0;
+            while (next < files.size() || !window.isEmpty()) {
+                while (next < files.size() && window.size() < poolSize * 2) {
+                    Path file = files.get(next++);
+                    window.add(pool.submit(() -> evaluateXPath(processor, executable, file, countOnly, perFileCap)));
+                }
+                XPathMatches result = window.poll().get();
+                bytes += result.bytes;
+                if (result.error != null) {
+                    failed++;
+                    out.flush();
+                    System.err.println("FAIL: " + result.file);
+                    System.err.println("  " + result.error);
+                    continue;
+                }
+                long count = limit > 0 ? Math.min(result.count, limit - matches) : result.count;
+                if (count > 0) {
+                    matchedFiles++;
+                }
+                if (countOnly) {
+                    if (count > 0) {
+                        out.printf("%s\t%d%n", result.file, count);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        out.println(result.lines.get(i));
+                    }
+                }
+                matches += count;
+                if (limit > 0 && matches >= limit) {
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d match(es) in %d of %d file(s)%s; %.1f MB in %.2f s (%.1f MB/s)%n",
+            matches, matchedFiles, files.size(), failed > 0 ? ", " + failed + " failed" : "",
+            bytes / 1e6, seconds, seconds > 0 ? bytes / 1e6 / seconds : 0.0);
+        return failed > 0 ? 1 : 0;
+    }
+
+    private static final class XPathMatches {
+        final Path file;
+        final List<String> lines = new ArrayList<>();
+        long count;
+        long bytes;
+        String error;
+
+        XPathMatches(Path file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Evaluate the expression on one file, formatting up to cap matches as
+     * file, match path (- for atomic values) and value.
+     */
+    private XPathMatches evaluateXPath(Processor processor, XPathExecutable executable, Path file, boolean countOnly, long cap) {
+        XPathMatches result = new XPathMatches(file);
+        try {
+            result.bytes = Files.size(file);
+            XdmNode doc = processor.newDocumentBuilder().build(file.toFile());
+            XPathSelector selector = executable.load();
+            selector.setContextItem(doc);
+            for (XdmItem item : selector) {
+                result.count++;
+                if (!countOnly) {
+                    String path = "-";
+                    String value = item.isNode() || item.isAtomicValue() ? item.getStringValue() : item.toString();
+                    if (item.isNode()) {
+                        path = net.sf.saxon.tree.util.Navigator.getPath(((XdmNode) item).getUnderlyingNode());
+                        value = truncate(value.trim().replaceAll("\\s+", " "), 120);
+                    }
+                    result.lines.add(file + "\t" + path + "\t" + value);
+                }
+                if (result.count >= cap) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            result.error = e.getMessage();
+        }
+        return result;
+    }
+
     @Command(name = "map", description = "Extract all XPath paths and values from XML")
     int map(
         @Parameters(paramLabel = "INPUT", description = "Input XML file")
@@ -401,11 +1110,29 @@ public class Main implements Callable<Integer> {
         @Option(names = {"--include-text"}, description = "Include text nodes")
         boolean includeText,
         @Option(names = {"--include-attrs"}, description = "Include attributes (default: true)", defaultValue = "true", negatable = true)
-        boolean includeAttrs
+        boolean includeAttrs,
+        @Option(names = {"--summary"}, description = "Stream the input and report each distinct path once, with counts, per-parent cardinality and sample values")
+        boolean summary,
+        @Option(names = {"--sort"}, description = "Summary order: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}; document = order of first occurrence)", defaultValue = "path")
+        PathSummary.Order sort,
+        @Option(names = {"--mem-stats"}, description = "Report the input tree's node count and approximate memory footprint on stderr")
+        boolean memStats
     ) throws Exception {
+        if (summary) {
+            PathSummary pathSummary = new PathSummary(includeText, includeAttrs);
+            pathSummary.scan(input);
+            System.out.println("# XPath summary for: " + input.getFileName());
+            pathSummary.print(System.out, sort);
+            return 0;
+        }
+
+        // No stylesheet says which whitespace is insignificant, so all of it is kept
         Processor processor = new Processor(false);
-        DocumentBuilder builder = processor.newDocumentBuilder();
-        XdmNode doc = builder.build(input.toFile());
+        long start = System.nanoTime();
+        XdmNode doc = TreeLoader.load(processor, input, WhitespaceStrippingPolicy.NONE);
+        if (memStats) {
+            TreeLoader.printStats(doc, input, System.nanoTime() - start, System.err);
+        }
 
         System.out.println("# XPath mapping for: " + input.getFileName());
         System.out.println("# xpath\ttype\tvalue");
@@ -414,6 +1141,7 @@ public class Main implements Callable<Integer> {
         return 0;
     }
 
+
     private void walkNode(XdmNode node, boolean includeText, boolean includeAttrs) {
         net.sf.saxon.om.NodeInfo info = node.getUnderlyingNode();
         String xpath = net.sf.saxon.tree.util.Navigator.getPath(info);
@@ -0,0 +1,126 @@
+package saxx;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.Processor;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mock extension functions and ignored extension elements, read from JSON files
+ * and registered on a Processor's configuration.
+ */
+public final class Mocks {
+    public static final Path GLOBAL_FILE = getGlobalMocksPath();
+
+    private Mocks() {}
+
+    private static Path getGlobalMocksPath() {
+        String os = System.getProperty("os.name").toLowerCase();
+        if (os.contains("win")) {
+            String appData = System.getenv("APPDATA");
+            if (appData != null) {
+                return Paths.get(appData, "saxx", "mocks.json");
+            }
+        }
+        return Paths.get(System.getProperty("user.home"), ".config", "saxx", "mocks.json");
+    }
+
+    /**
+     * Register mock extension functions from a JSON file.
+     * JSON format:
+     * {
+     *   "namespace-uri": {
+     *     "_elements": ["init", "otherElement"],  // optional: list of extension elements to ignore
+     *     "functionName": returnValue,            // mock function returns
+     *     ...
+     *   },
+     *   ...
+     * }
+     * Where returnValue can be: null, true, false, number, or "string"
+     *
+     * The "_elements" array lists extension element local names that should be
+     * treated as warnings instead of errors during deep checks; they are added
+     * to ignoredElements.
+     */
+    public static void register(Processor processor, Path mocksFile, Set<String> ignoredElements) throws IOException {
+        String json = Files.readString(mocksFile);
+        Configuration config = processor.getUnderlyingConfiguration();
+
+        // Simple JSON parsing for our specific format
+        Pattern nsPattern = Pattern.compile("\"([^\"]+)\"\\s*:\\s*\\{([^}]+)\\}");
+        Pattern fnPattern = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(null|true|false|\"[^\"]*\"|[-+]?\\d+\\.?\\d*)");
+        Pattern elemListPattern = Pattern.compile("\"_elements\"\\s*:\\s*\\[([^\\]]+)\\]");
+        Pattern elemNamePattern = Pattern.compile("\"([^\"]+)\"");
+
+        Matcher nsMatcher = nsPattern.matcher(json);
+
+        while (nsMatcher.find()) {
+            String namespace = nsMatcher.group(1);
+            String content = nsMatcher.group(2);
+
+            // Check for _elements: ["elem1", "elem2"] directive
+            Matcher elemListMatcher = elemListPattern.matcher(content);
+            if (elemListMatcher.find()) {
+                String elemList = elemListMatcher.group(1);
+                Matcher elemNameMatcher = elemNamePattern.matcher(elemList);
+                while (elemNameMatcher.find()) {
+                    ignoredElements.add(elemNameMatcher.group(1));
+                }
+                // FORK FEATURE: Register extension element factory for this namespace (no-op elements)
+                // See saxon-work/ENHANCEMENTS.md for documentation
+                config.registerExtensionElementFactory(namespace,
+                    localName -> new net.sf.saxon.style.NoOpExtensionElement());
+            }
+
+            Matcher fnMatcher = fnPattern.matcher(content);
+            while (fnMatcher.find()) {
+                String funcName = fnMatcher.group(1);
+                if (funcName.startsWith("_")) {
+                    continue;  // Skip directives like _elements
+                }
+                String valueStr = fnMatcher.group(2);
+
+                Object value = parseJsonValue(valueStr);
+                config.registerExtensionFunction(new MockExtensionFunction(namespace, funcName, value));
+            }
+        }
+    }
+
+    /**
+     * Create an empty global mocks file on first use, so that users find where
+     * global mocks go. Used by the command line only.
+     */
+    static void createGlobalFile() {
+        if (Files.exists(GLOBAL_FILE)) {
+            return;
+        }
+        try {
+            Files.createDirectories(GLOBAL_FILE.getParent());
+            Files.writeString(GLOBAL_FILE, "{}\n");
+            System.err.println("Created global mocks file: " + GLOBAL_FILE);
+        } catch (Exception e) {
+            // Ignore - may not have write permission
+        }
+    }
+
+    private static Object parseJsonValue(String valueStr) {
+        if (valueStr.equals("null")) {
+            return null;
+        } else if (valueStr.equals("true")) {
+            return Boolean.TRUE;
+        } else if (valueStr.equals("false")) {
+            return Boolean.FALSE;
+        } else if (valueStr.startsWith("\"") && valueStr.endsWith("\"")) {
+            return valueStr.substring(1, valueStr.length() - 1);
+        } else if (valueStr.contains(".")) {
+            return Double.parseDouble(valueStr);
+        } else {
+            return Long.parseLong(valueStr);
+        }
+    }
+}
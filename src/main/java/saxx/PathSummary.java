@@ -0,0 +1,203 @@
+package saxx;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Streaming structural summary of an XML document.
+ * Paths are the ones produced by map, with positional predicates stripped,
+ * aggregated into a trie so memory depends on the number of distinct paths only.
+ */
+public class PathSummary {
+    private static final int MAX_SAMPLES = 3;
+    private static final int MAX_VALUE_LENGTH = 80;
+
+    /** Order of the printed paths. */
+    public enum Order { path, document, count }
+
+    /**
+     * One distinct path. Counters are primitive; children are keyed by display name
+     * ("item", "@id", "text()").
+     */
+    static final class Node {
+        final String name;
+        final Node parent;
+        final Map<String, Node> children = new LinkedHashMap<>(4);
+        long count;
+        int minPerParent = Integer.MAX_VALUE;
+        int maxPerParent;
+        int inCurrentParent;
+        String[] samples;
+        int sampleCount;
+
+        Node(String name, Node parent) {
+            this.name = name;
+            this.parent = parent;
+            // A path first seen after earlier parent instances was absent from those
+            if (parent != null && parent.count > 1) {
+                minPerParent = 0;
+            }
+        }
+
+        Node child(String name) {
+            Node child = children.get(name);
+            if (child == null) {
+                child = new Node(name, this);
+                children.put(name, child);
+            }
+            child.count++;
+            child.inCurrentParent++;
+            return child;
+        }
+
+        /** Fold per-parent occurrence counts of all children into min/max once this instance ends. */
+        void endInstance() {
+            for (Node child : children.values()) {
+                int n = child.inCurrentParent;
+                if (n < child.minPerParent) child.minPerParent = n;
+                if (n > child.maxPerParent) child.maxPerParent = n;
+                child.inCurrentParent = 0;
+            }
+        }
+
+        void addSample(CharSequence value) {
+            if (sampleCount >= MAX_SAMPLES || value.length() == 0) {
+                return;
+            }
+            String s = value.toString();
+            for (int i = 0; i < sampleCount; i++) {
+                if (samples[i].equals(s)) return;
+            }
+            if (samples == null) {
+                samples = new String[MAX_SAMPLES];
+            }
+            samples[sampleCount++] = s;
+        }
+
+        String path() {
+            if (parent == null) return "";
+            return parent.path() + "/" + name;
+        }
+    }
+
+    private final Node root = new Node("", null);
+    private final boolean includeText;
+    private final boolean includeAttrs;
+
+    public PathSummary(boolean includeText, boolean includeAttrs) {
+        this.includeText = includeText;
+        this.includeAttrs = includeAttrs;
+        root.count = 1;
+    }
+
+    /**
+     * Scan a document with a pull parser. Only the open-element stack and a
+     * truncated text buffer per open element are held in memory.
+     */
+    public void scan(Path input) throws Exception {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        Deque<Node> stack = new ArrayDeque<>();
+        Deque<StringBuilder> text = new ArrayDeque<>();
+        Node current = root;
+
+        try (InputStream in = Files.newInputStream(input)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                int event = reader.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT: {
+                        stack.push(current);
+                        current = current.child(displayName(reader.getPrefix(), reader.getLocalName()));
+                        text.push(new StringBuilder());
+                        if (includeAttrs) {
+                            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                                Node attr = current.child("@" + reader.getAttributeLocalName(i));
+                                attr.addSample(truncate(reader.getAttributeValue(i)));
+                            }
+                        }
+                        break;
+                    }
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA: {
+                        if (current == root) break;
+                        if (includeText && !reader.isWhiteSpace()) {
+                            Node textNode = current.child("text()");
+                            textNode.addSample(truncate(reader.getText().trim()));
+                        }
+                        StringBuilder sb = text.peek();
+                        if (sb.length() <= MAX_VALUE_LENGTH) {
+                            sb.append(reader.getTextCharacters(), reader.getTextStart(),
+                                Math.min(reader.getTextLength(), MAX_VALUE_LENGTH + 1));
+                        }
+                        break;
+                    }
+                    case XMLStreamConstants.END_ELEMENT: {
+                        current.addSample(truncate(text.pop().toString().trim().replaceAll("\\s+", " ")));
+                        current.endInstance();
+                        current = stack.pop();
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+            reader.close();
+        }
+        root.endInstance();
+    }
+
+    /**
+     * Print one line per distinct path, sorted by path, in document order of
+     * first occurrence, or by descending frequency.
+     */
+    public void print(PrintStream out, Order order) {
+        List<Node> nodes = new ArrayList<>();
+        collect(root, nodes);
+        Map<Node, String> paths = new IdentityHashMap<>();
+        for (Node node : nodes) {
+            paths.put(node, node.path());
+        }
+        if (order == Order.path) {
+            nodes.sort(Comparator.comparing(paths::get));
+        } else if (order == Order.count) {
+            nodes.sort((a, b) -> Long.compare(b.count, a.count));
+        }
+        out.println("# xpath\tcount\tmin\tmax\tsamples");
+        for (Node node : nodes) {
+            StringBuilder samples = new StringBuilder();
+            for (int i = 0; i < node.sampleCount; i++) {
+                if (i > 0) samples.append(" | ");
+                samples.append(node.samples[i]);
+            }
+            int min = node.minPerParent == Integer.MAX_VALUE ? 0 : node.minPerParent;
+            out.printf("%s\t%d\t%d\t%d\t%s%n", paths.get(node), node.count, min, node.maxPerParent, samples);
+        }
+    }
+
+    private void collect(Node node, List<Node> nodes) {
+        for (Node child : node.children.values()) {
+            nodes.add(child);
+            collect(child, nodes);
+        }
+    }
+
+    private static String displayName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private static String truncate(String s) {
+        if (s == null || s.isEmpty()) return "";
+        if (s.length() <= MAX_VALUE_LENGTH) return s;
+        return s.substring(0, MAX_VALUE_LENGTH - 3) + "...";
+    }
+}
@@ -0,0 +1,259 @@
+package saxx;
+
+import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.expr.instruct.CallTemplate;
+import net.sf.saxon.expr.instruct.ForEach;
+import net.sf.saxon.expr.instruct.ForEachGroup;
+import net.sf.saxon.expr.instruct.IterateInstr;
+import net.sf.saxon.expr.instruct.NamedTemplate;
+import net.sf.saxon.expr.instruct.TemplateRule;
+import net.sf.saxon.expr.sort.DocumentSorter;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.s9api.Location;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.UType;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Static check of a compiled stylesheet for patterns that are usually slow:
+ * document-wide // scans that run once per item, lookups by predicate that an
+ * xsl:key would index, count(preceding-sibling::*) numbering, and string
+ * accumulation through recursive named templates.
+ *
+ * Expects a stylesheet compiled without optimization, so that the expression
+ * tree still has the shape of the source (the optimizer lifts and rewrites loops).
+ */
+public class PerfLint {
+
+    enum Severity { WARNING, INFO }
+
+    static final class Finding {
+        final String module;
+        final int line;
+        final Severity severity;
+        final String message;
+        final String suggestion;
+
+        Finding(Location location, Severity severity, String message, String suggestion) {
+            this.module = CompactTraceListener.getShortModule(location.getSystemId());
+            this.line = location.getLineNumber();
+            this.severity = severity;
+            this.message = message;
+            this.suggestion = suggestion;
+        }
+    }
+
+    private final List<Finding> findings = new ArrayList<>();
+    private final Set<String> reported = new HashSet<>();
+    // Axis steps already covered by a key suggestion, so they are not reported twice
+    private final Set<Expression> claimed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Location component;
+
+    public List<Finding> lint(PreparedStylesheet stylesheet) throws XPathException {
+        StylesheetWalker.walk(stylesheet, new StylesheetWalker.Visitor() {
+            @Override
+            public void component(Location c) {
+                component = c;
+            }
+
+            @Override
+            public void expression(Expression expr, Deque<Expression> ancestors) {
+                if (expr instanceof FilterExpression) {
+                    checkKeyLookup((FilterExpression) expr, ancestors);
+                } else if (expr instanceof AxisExpression) {
+                    checkDescendantScan((AxisExpression) expr, ancestors);
+                    checkPrecedingCount((AxisExpression) expr, ancestors);
+                } else if (isFunction(expr, "concat")) {
+                    checkRecursiveConcat(expr, ancestors);
+                }
+            }
+        });
+        findings.sort(Comparator.comparing((Finding f) -> f.module).thenComparingInt(f -> f.line));
+        return findings;
+    }
+
+    static void print(List<Finding> findings, PrintStream out) {
+        for (Finding f : findings) {
+            out.printf("  %s:%d: %s: %s%n", f.module, f.line, f.severity, f.message);
+            out.printf("      suggestion: %s%n", f.suggestion);
+        }
+    }
+
+    /** //x[@k = $v] inside a loop: a full scan per item where key() would be one lookup. */
+    private void checkKeyLookup(FilterExpression filter, Deque<Expression> ancestors) {
+        Expression base = filter.getBase();
+        if (!(base instanceof AxisExpression) || !isDescendant((AxisExpression) base)) return;
+        Expression start = pathStart(filter, ancestors);
+        if (!(start instanceof RootExpression || isFunction(start, "doc") || isFunction(start, "document"))) return;
+        String loop = repeatingContext(filter, ancestors);
+        if (loop == null) return;
+
+        Expression predicate = filter.getFilter();
+        if (!(predicate instanceof ComparisonExpression && predicate instanceof BinaryExpression)) return;
+        Expression[] sides = {((BinaryExpression) predicate).getLhsExpression(), ((BinaryExpression) predicate).getRhsExpression()};
+        for (int i = 0; i < 2; i++) {
+            Expression indexed = sides[i];
+            Expression value = sides[1 - i];
+            if (dependsOnFocus(indexed) && !dependsOnFocus(value)) {
+                claimed.add(base);
+                String element = stepName((AxisExpression) base);
+                String use = useExpression(indexed);
+                if (use == null) use = indexed.toShortString();
+                String keyName = element.replaceAll("\\W", "") + "-by-" + use.replaceAll("\\W", "");
+                String document = start instanceof RootExpression
+                    ? "" : ", " + ((SystemFunctionCall) start).getFunctionName().getLocalPart() + "(...)";
+                report(filter, Severity.WARNING,
+                    "lookup //" + element + "[" + use + " = ...] scans every " + element + " " + loop,
+                    "<xsl:key name=\"" + keyName + "\" match=\"" + element + "\" use=\"" + use + "\"/>"
+                        + " and key('" + keyName + "', ..." + document + ")");
+                return;
+            }
+        }
+    }
+
+    /** Absolute //x evaluated once per item of a loop or per matched node of a template. */
+    private void checkDescendantScan(AxisExpression axis, Deque<Expression> ancestors) {
+        if (!isDescendant(axis) || claimed.contains(axis)) return;
+        Expression start = pathStart(axis, ancestors);
+        if (!(start instanceof RootExpression)) return;
+        String loop = repeatingContext(axis, ancestors);
+        if (loop == null) return;
+        String element = stepName(axis);
+        report(axis, Severity.WARNING,
+            "//" + element + " scans the whole document " + loop,
+            "bind <xsl:variable name=\"" + element.replaceAll("\\W", "") + "s\" select=\"//" + element + "\"/> outside the loop,"
+                + " use a relative path, or index with xsl:key");
+    }
+
+    /** count(preceding-sibling::x) is quadratic over the siblings. */
+    private void checkPrecedingCount(AxisExpression axis, Deque<Expression> ancestors) {
+        if (axis.getAxis() != AxisInfo.PRECEDING_SIBLING && axis.getAxis() != AxisInfo.PRECEDING) return;
+        Expression child = axis;
+        for (Iterator<Expression> it = ancestors.descendingIterator(); it.hasNext(); ) {
+            Expression parent = it.next();
+            if (isFunction(parent, "count")) {
+                report(parent, Severity.WARNING,
+                    "count(" + AxisInfo.axisName[axis.getAxis()] + "::" + stepName(axis) + ") is evaluated per node, quadratic in the number of siblings",
+                    "use <xsl:number/>, or position() when numbering the items of the enclosing for-each");
+                return;
+            }
+            boolean pathStep = parent instanceof SlashExpression && ((SlashExpression) parent).getStep() == child;
+            boolean filterBase = parent instanceof FilterExpression && ((FilterExpression) parent).getBase() == child;
+            if (!(pathStep || filterBase || parent instanceof DocumentSorter || isFunction(parent, "reverse"))) {
+                return;
+            }
+            child = parent;
+        }
+    }
+
+    /** concat() passed to a recursive call of the current named template copies the accumulated string each time. */
+    private void checkRecursiveConcat(Expression concat, Deque<Expression> ancestors) {
+        if (!(component instanceof NamedTemplate)) return;
+        NamedTemplate template = (NamedTemplate) component;
+        for (Expression ancestor : ancestors) {
+            if (ancestor instanceof CallTemplate && ((CallTemplate) ancestor).getTargetTemplate() == template) {
+                report(concat, Severity.INFO,
+                    "string built with concat() through recursive template " + template.getTemplateName().getDisplayName()
+                        + " is copied on every call",
+                    "collect the parts as a sequence and join once with string-join(), or use xsl:iterate");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Describe the construct that evaluates expr repeatedly: the body of a
+     * for-each, for-each-group, iterate, for or predicate, or a template rule
+     * that matches nodes other than the document node. Null if it runs once.
+     */
+    private String repeatingContext(Expression expr, Deque<Expression> ancestors) {
+        Expression child = expr;
+        for (Iterator<Expression> it = ancestors.descendingIterator(); it.hasNext(); ) {
+            Expression parent = it.next();
+            if (parent instanceof ForEach && ((ForEach) parent).getActionExpression() == child) {
+                return "for each item of for-each select=\"" + ((ForEach) parent).getSelectExpression().toShortString() + "\"";
+            }
+            if (parent instanceof ForEachGroup && ((ForEachGroup) parent).getActionExpression() == child) {
+                return "for each group of for-each-group";
+            }
+            if (parent instanceof IterateInstr && ((IterateInstr) parent).getActionExpression() == child) {
+                return "for each item of xsl:iterate";
+            }
+            if (parent instanceof ForExpression && ((ForExpression) parent).getAction() == child) {
+                return "for each item of a for expression";
+            }
+            if (parent instanceof FilterExpression && ((FilterExpression) parent).getFilter() == child) {
+                return "for each item tested by the predicate of " + ((FilterExpression) parent).getBase().toShortString();
+            }
+            child = parent;
+        }
+        if (component instanceof TemplateRule) {
+            TemplateRule rule = (TemplateRule) component;
+            if (rule.getMatchPattern() != null && !rule.getMatchPattern().getUType().equals(UType.DOCUMENT)) {
+                return "for each node matched by template match=\"" + rule.getMatchPattern() + "\"";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The expression a path step is applied to, e.g. the root in root/descendant::x,
+     * skipping predicates on the step. Null for a step with no explicit start.
+     */
+    private static Expression pathStart(Expression step, Deque<Expression> ancestors) {
+        Expression child = step;
+        for (Iterator<Expression> it = ancestors.descendingIterator(); it.hasNext(); ) {
+            Expression parent = it.next();
+            if (parent instanceof FilterExpression && ((FilterExpression) parent).getBase() == child) {
+                child = parent;
+            } else if (parent instanceof SlashExpression && ((SlashExpression) parent).getStep() == child) {
+                return ((SlashExpression) parent).getStart();
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void report(Expression expr, Severity severity, String message, String suggestion) {
+        Location location = expr.getLocation();
+        if (reported.add(location.getSystemId() + ":" + location.getLineNumber() + ":" + message)) {
+            findings.add(new Finding(location, severity, message, suggestion));
+        }
+    }
+
+    private static boolean isDescendant(AxisExpression axis) {
+        return axis.getAxis() == AxisInfo.DESCENDANT || axis.getAxis() == AxisInfo.DESCENDANT_OR_SELF;
+    }
+
+    private static boolean isFunction(Expression expr, String localName) {
+        return expr instanceof SystemFunctionCall
+            && ((SystemFunctionCall) expr).getFunctionName().getLocalPart().equals(localName);
+    }
+
+    private static boolean dependsOnFocus(Expression expr) {
+        return (expr.getDependencies() & StaticProperty.DEPENDS_ON_FOCUS) != 0;
+    }
+
+    private static String stepName(AxisExpression axis) {
+        String step = axis.toShortString();
+        int colons = step.indexOf("::");
+        step = colons >= 0 ? step.substring(colons + 2) : step;
+        return step.equals("element()") ? "*" : step;
+    }
+
+    /** The context-relative side of a predicate comparison, e.g. @id for xs:string(@id). */
+    private static String useExpression(Expression indexed) {
+        if (indexed instanceof AxisExpression) {
+            AxisExpression axis = (AxisExpression) indexed;
+            return stepName(axis);
+        }
+        for (Operand operand : indexed.operands()) {
+            String use = useExpression(operand.getChildExpression());
+            if (use != null) return use;
+        }
+        return null;
+    }
+}
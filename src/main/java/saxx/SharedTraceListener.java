@@ -0,0 +1,66 @@
+package saxx;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.Logger;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.Traceable;
+import net.sf.saxon.trans.Mode;
+import java.util.Map;
+
+/**
+ * Lends a listener that spans several transforms to one of them. Saxon closes a
+ * transformer's listener when its transform ends; this forwards every event
+ * except close(), which is left to the owner once all transforms have run.
+ */
+public class SharedTraceListener implements TraceListener {
+    private final TraceListener delegate;
+
+    public SharedTraceListener(TraceListener delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void setOutputDestination(Logger stream) {
+        delegate.setOutputDestination(stream);
+    }
+
+    @Override
+    public void open(Controller controller) {
+        delegate.open(controller);
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void enter(Traceable traceable, Map<String, Object> properties, XPathContext context) {
+        delegate.enter(traceable, properties, context);
+    }
+
+    @Override
+    public void leave(Traceable traceable) {
+        delegate.leave(traceable);
+    }
+
+    @Override
+    public void startCurrentItem(Item item) {
+        delegate.startCurrentItem(item);
+    }
+
+    @Override
+    public void endCurrentItem(Item item) {
+        delegate.endCurrentItem(item);
+    }
+
+    @Override
+    public void startRuleSearch() {
+        delegate.startRuleSearch();
+    }
+
+    @Override
+    public void endRuleSearch(Object rule, Mode mode, Item item) {
+        delegate.endRuleSearch(rule, mode, item);
+    }
+}
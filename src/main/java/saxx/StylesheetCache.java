@@ -0,0 +1,160 @@
+package saxx;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.lib.ResourceResolver;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * On-disk cache of compiled stylesheets, stored as exported packages (SEF).
+ * An entry is found by hashing the environment (saxx/Saxon versions, compile
+ * options, mocks) with the stylesheet path, and is used only if every module of
+ * its import/include closure still has the content hash recorded at compile time.
+ */
+public class StylesheetCache {
+    private final Path dir;
+    private boolean exportSupported = true;
+
+    public StylesheetCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Describe everything besides the stylesheet closure that affects compilation:
+     * saxx and Saxon versions, tracing options and the registered mocks files.
+     */
+    public static String environment(Processor processor, List<Path> mocksFiles) throws IOException {
+        Configuration config = processor.getUnderlyingConfiguration();
+        StringBuilder sb = new StringBuilder();
+        sb.append(Main.VERSION).append('\n');
+        sb.append(processor.getSaxonEdition()).append(' ').append(processor.getSaxonProductVersion()).append('\n');
+        sb.append("tracing=").append(config.isCompileWithTracing()).append('\n');
+        sb.append("retainNodes=").append(config.getBooleanProperty(Feature.RETAIN_NODE_FOR_DIAGNOSTICS)).append('\n');
+        for (Path mocksFile : mocksFiles) {
+            sb.append(Files.readString(mocksFile)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param environment everything besides the stylesheet closure that affects
+     *                    compilation, as returned by {@link #environment}
+     */
+    public XsltExecutable compile(XsltCompiler compiler, Path stylesheet, String environment) throws SaxonApiException, IOException {
+        Path main = stylesheet.toAbsolutePath().normalize();
+        String key = sha256((environment + "\n" + main).getBytes(StandardCharsets.UTF_8));
+        Path sef = dir.resolve(key + ".sef");
+        Path deps = dir.resolve(key + ".deps");
+
+        if (Files.exists(sef) && isUpToDate(deps)) {
+            try {
+                return compiler.loadExecutablePackage(sef.toUri());
+            } catch (SaxonApiException e) {
+                // Unreadable or incompatible entry - recompile and replace it
+            }
+        }
+
+        // Record every module the compiler resolves (xsl:import, xsl:include, ...)
+        Set<Path> closure = new LinkedHashSet<>();
+        closure.add(main);
+        ResourceResolver previous = compiler.getResourceResolver();
+        compiler.setResourceResolver(request -> {
+            Path module = toPath(request.uri);
+            if (module != null) {
+                closure.add(module);
+            }
+            return previous != null ? previous.resolve(request) : null;
+        });
+        XsltExecutable executable;
+        try {
+            executable = compiler.compile(new StreamSource(main.toFile()));
+        } finally {
+            compiler.setResourceResolver(previous);
+        }
+
+        store(executable, sef, deps, closure);
+        return executable;
+    }
+
+    private boolean isUpToDate(Path deps) {
+        try {
+            List<String> lines = Files.readAllLines(deps);
+            if (lines.isEmpty()) return false;
+            for (String line : lines) {
+                int space = line.indexOf(' ');
+                Path module = Paths.get(line.substring(space + 1));
+                if (!Files.isRegularFile(module) || !sha256(Files.readAllBytes(module)).equals(line.substring(0, space))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void store(XsltExecutable executable, Path sef, Path deps, Set<Path> closure) throws IOException {
+        if (!exportSupported) return;
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "export", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                executable.export(out);
+            } catch (SaxonApiException e) {
+                exportSupported = false;
+                System.err.println("Warning: stylesheet cache disabled: " + e.getMessage());
+                return;
+            }
+            Files.move(tmp, sef, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Written last: a reader seeing a new package with an old manifest just recompiles
+            StringBuilder manifest = new StringBuilder();
+            for (Path module : closure) {
+                if (Files.isRegularFile(module)) {
+                    manifest.append(sha256(Files.readAllBytes(module))).append(' ').append(module).append('\n');
+                }
+            }
+            Files.writeString(tmp, manifest.toString());
+            Files.move(tmp, deps, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * The local file named by a file: URI, or null for other URIs.
+     */
+    static Path toPath(String uri) {
+        try {
+            URI u = new URI(uri);
+            return "file".equals(u.getScheme()) ? Paths.get(u).normalize() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static String sha256(byte[] data) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package saxx;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.Xslt30Transformer;
+import net.sf.saxon.s9api.XsltExecutable;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A/B comparison of two compiled stylesheets on one input: both are run
+ * alternately (old/new, then new/old) after a warm-up, the first outputs are
+ * compared byte for byte and each pair of runs gives one new/old time ratio.
+ */
+public class StylesheetComparison {
+
+    // Two-sided 95% Student t quantiles for 1..30 degrees of freedom
+    private static final double[] T95 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+
+    static final class Result {
+        final Path input;
+        final double[] oldMillis;
+        final double[] newMillis;
+        boolean equal;
+        String error;
+
+        Result(Path input, int runs) {
+            this.input = input;
+            this.oldMillis = new double[runs];
+            this.newMillis = new double[runs];
+        }
+
+        /** ln(new/old) for each interleaved pair of runs. */
+        double[] logRatios() {
+            double[] ratios = new double[oldMillis.length];
+            for (int i = 0; i < ratios.length; i++) {
+                ratios[i] = Math.log(newMillis[i] / oldMillis[i]);
+            }
+            return ratios;
+        }
+    }
+
+    /**
+     * Mean of a sample with the half-width of its 95% confidence interval.
+     */
+    static final class Estimate {
+        final double mean;
+        final double halfWidth;
+
+        Estimate(double[] sample) {
+            int n = sample.length;
+            double sum = 0;
+            for (double x : sample) sum += x;
+            mean = sum / n;
+            double squares = 0;
+            for (double x : sample) squares += (x - mean) * (x - mean);
+            halfWidth = n > 1 ? tQuantile(n - 1) * Math.sqrt(squares / (n - 1) / n) : Double.NaN;
+        }
+
+        /** Estimated change of new relative to old in percent, from a mean log ratio. */
+        double percent() {
+            return (Math.exp(mean) - 1) * 100;
+        }
+
+        double lowerPercent() {
+            return (Math.exp(mean - halfWidth) - 1) * 100;
+        }
+
+        double upperPercent() {
+            return (Math.exp(mean + halfWidth) - 1) * 100;
+        }
+    }
+
+    private final Processor processor;
+    private final XsltExecutable oldExecutable;
+    private final XsltExecutable newExecutable;
+    private final int warmup;
+    private final int runs;
+
+    public StylesheetComparison(Processor processor, XsltExecutable oldExecutable, XsltExecutable newExecutable,
+                                int warmup, int runs) {
+        this.processor = processor;
+        this.oldExecutable = oldExecutable;
+        this.newExecutable = newExecutable;
+        this.warmup = warmup;
+        this.runs = runs;
+    }
+
+    /**
+     * Compare both stylesheets on one input. Safe to call from several threads.
+     */
+    Result run(Path input) {
+        Result result = new Result(input, runs);
+        try {
+            // Each version gets the input stripped by its own xsl:strip-space rules
+            XdmNode oldDoc = TreeLoader.load(processor, input, oldExecutable.getWhitespaceStrippingPolicy());
+            XdmNode newDoc = TreeLoader.load(processor, input, newExecutable.getWhitespaceStrippingPolicy());
+            ByteArrayOutputStream oldOutput = new ByteArrayOutputStream();
+            ByteArrayOutputStream newOutput = new ByteArrayOutputStream();
+
+            for (int i = 0; i < warmup + runs; i++) {
+                // Only the first outputs are kept; later runs write to a counting sink
+                OutputStream oldSink = i == 0 ? oldOutput : new BoundedOutputStream(0);
+                OutputStream newSink = i == 0 ? newOutput : new BoundedOutputStream(0);
+                long oldNanos;
+                long newNanos;
+                if (i % 2 == 0) {
+                    oldNanos = time(oldExecutable, oldDoc, oldSink);
+                    newNanos = time(newExecutable, newDoc, newSink);
+                } else {
+                    newNanos = time(newExecutable, newDoc, newSink);
+                    oldNanos = time(oldExecutable, oldDoc, oldSink);
+                }
+                if (i >= warmup) {
+                    result.oldMillis[i - warmup] = oldNanos / 1e6;
+                    result.newMillis[i - warmup] = newNanos / 1e6;
+                }
+            }
+            result.equal = Arrays.equals(oldOutput.toByteArray(), newOutput.toByteArray());
+        } catch (SaxonApiException e) {
+            result.error = e.getMessage();
+        }
+        return result;
+    }
+
+    private long time(XsltExecutable executable, XdmNode doc, OutputStream out) throws SaxonApiException {
+        Xslt30Transformer transformer = executable.load30();
+        long start = System.nanoTime();
+        transformer.setGlobalContextItem(doc);
+        transformer.applyTemplates(doc, processor.newSerializer(out));
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Pool the log ratios of all successful inputs into one estimate.
+     */
+    static Estimate overall(List<Result> results) {
+        int n = 0;
+        for (Result r : results) {
+            if (r.error == null) n += r.oldMillis.length;
+        }
+        double[] pooled = new double[n];
+        int i = 0;
+        for (Result r : results) {
+            if (r.error != null) continue;
+            for (double x : r.logRatios()) pooled[i++] = x;
+        }
+        return new Estimate(pooled);
+    }
+
+    static double median(double[] sample) {
+        double[] sorted = sample.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+
+    private static double tQuantile(int degreesOfFreedom) {
+        return degreesOfFreedom <= T95.length ? T95[degreesOfFreedom - 1] : 1.96;
+    }
+}
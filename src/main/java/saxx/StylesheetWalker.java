@@ -0,0 +1,98 @@
+package saxx;
+
+import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.expr.Component;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.Operand;
+import net.sf.saxon.expr.instruct.Actor;
+import net.sf.saxon.expr.instruct.TemplateRule;
+import net.sf.saxon.s9api.Location;
+import net.sf.saxon.trans.Mode;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.trans.rules.RuleManager;
+import java.util.*;
+
+/**
+ * Walks the compiled expression trees of a stylesheet: the template rules of
+ * every mode, then named templates, functions and global variables.
+ */
+final class StylesheetWalker {
+
+    interface Visitor {
+        /** Called once per template rule, named template, function or global variable. */
+        default void component(Location component) {}
+
+        /** Called for each expression, with its ancestors up to the component body (innermost last). */
+        void expression(Expression expr, Deque<Expression> ancestors);
+    }
+
+    private StylesheetWalker() {}
+
+    static void walk(PreparedStylesheet stylesheet, Visitor visitor) throws XPathException {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Mode> modes = new ArrayList<>();
+        RuleManager rules = stylesheet.getRuleManager();
+        if (rules != null) {
+            modes.add(rules.getUnnamedMode());
+            modes.addAll(rules.getAllNamedModes());
+        }
+        for (Component component : stylesheet.getTopLevelPackage().getComponentIndex().values()) {
+            Actor actor = component.getActor();
+            if (actor instanceof Mode) {
+                modes.add((Mode) actor);
+            } else if (actor != null && seen.add(actor)) {
+                visitor.component(actor);
+                walkBody(actor.getBody(), visitor);
+            }
+        }
+        for (Mode mode : modes) {
+            if (mode == null || !seen.add(mode)) continue;
+            mode.processRules(rule -> {
+                if (rule.getAction() instanceof TemplateRule) {
+                    TemplateRule template = (TemplateRule) rule.getAction();
+                    if (seen.add(template)) {
+                        visitor.component(template);
+                        walkBody(template.getBody(), visitor);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * System IDs of the stylesheet modules that contribute compiled components.
+     */
+    static Set<String> modules(PreparedStylesheet stylesheet) throws XPathException {
+        Set<String> modules = new HashSet<>();
+        walk(stylesheet, new Visitor() {
+            @Override
+            public void component(Location component) {
+                if (component.getSystemId() != null) {
+                    modules.add(component.getSystemId());
+                }
+            }
+
+            @Override
+            public void expression(Expression expr, Deque<Expression> ancestors) {}
+        });
+        return modules;
+    }
+
+    private static void walkBody(Expression body, Visitor visitor) {
+        if (body != null) {
+            walkExpression(body, new ArrayDeque<>(), visitor);
+        }
+    }
+
+    private static void walkExpression(Expression expr, Deque<Expression> ancestors, Visitor visitor) {
+        visitor.expression(expr, ancestors);
+        ancestors.addLast(expr);
+        for (Operand operand : expr.operands()) {
+            Expression child = operand.getChildExpression();
+            if (child != null) {
+                walkExpression(child, ancestors, visitor);
+            }
+        }
+        ancestors.removeLast();
+    }
+}
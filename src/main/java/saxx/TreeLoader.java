@@ -0,0 +1,83 @@
+package saxx;
+
+import net.sf.saxon.om.TreeInfo;
+import net.sf.saxon.om.TreeModel;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.WhitespaceStrippingPolicy;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.tree.tiny.TinyTree;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Builds input documents for map and transform as condensed TinyTrees, which
+ * store repeated text and attribute values once, optionally dropping
+ * whitespace-only text nodes. Can report the size of the resulting tree.
+ */
+public class TreeLoader {
+
+    // Per-slot sizes of the TinyTree's parallel arrays (compressed oops)
+    private static final int BYTES_PER_NODE = 1 + 2 + 4 * 4;      // nodeKind, depth, next, alpha, beta, nameCode
+    private static final int BYTES_PER_ATTRIBUTE = 4 + 4 + 4;      // attParent, attCode, attValue reference
+    private static final int BYTES_PER_STRING = 24 + 16;           // String header + byte[] header
+
+    private TreeLoader() {}
+
+    /**
+     * @param policy whitespace stripping to apply while building, e.g. the stylesheet's xsl:strip-space rules
+     */
+    static XdmNode load(Processor processor, Path file, WhitespaceStrippingPolicy policy) throws SaxonApiException {
+        DocumentBuilder builder = processor.newDocumentBuilder();
+        builder.setTreeModel(TreeModel.TINY_TREE_CONDENSED);
+        builder.setWhitespaceStrippingPolicy(policy);
+        return builder.build(file.toFile());
+    }
+
+    /**
+     * Print node counts and the approximate bytes retained by the tree's arrays,
+     * attribute values and text buffer.
+     */
+    static void printStats(XdmNode doc, Path file, long loadNanos, PrintStream out) throws IOException {
+        TreeInfo info = doc.getUnderlyingNode().getTreeInfo();
+        if (!(info instanceof TinyTree)) {
+            out.println("Tree: statistics only available for TinyTree documents");
+            return;
+        }
+        TinyTree tree = (TinyTree) info;
+
+        long bytes = (long) tree.getNodeKindArray().length * BYTES_PER_NODE;
+        String[] values = tree.getAttributeValueArray();
+        if (values != null) {
+            bytes += (long) values.length * BYTES_PER_ATTRIBUTE;
+            // The condensed tree shares identical values, so count each String once
+            Set<String> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < tree.getNumberOfAttributes(); i++) {
+                if (values[i] != null && distinct.add(values[i])) {
+                    bytes += BYTES_PER_STRING + align(values[i].length());
+                }
+            }
+        }
+        if (tree.getCharacterBuffer() != null) {
+            bytes += tree.getCharacterBuffer().length();
+        }
+
+        out.printf("Tree: %d nodes, %d attributes, %d namespace(s); ~%s retained (input %s, built in %.1f ms)%n",
+            tree.getNumberOfNodes(), tree.getNumberOfAttributes(), tree.getNumberOfNamespaces(),
+            formatBytes(bytes), formatBytes(Files.size(file)), loadNanos / 1e6);
+    }
+
+    private static String formatBytes(long bytes) {
+        return bytes >= 1_000_000 ? String.format("%.1f MB", bytes / 1e6) : String.format("%.1f KB", bytes / 1e3);
+    }
+
+    private static long align(int length) {
+        return (length + 7) & ~7L;
+    }
+}
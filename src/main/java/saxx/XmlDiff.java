@@ -0,0 +1,275 @@
+package saxx;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Streaming node-by-node comparison of two XML documents.
+ * Both documents are read in a single lockstep pass with pull parsers; paths use
+ * the same scheme as map (/root/item[2]/@id, /root/item[2]/text()[1]).
+ * Siblings are compared positionally: no lookahead is done to realign inserted
+ * elements, so a mismatching sibling is reported as removed + added.
+ */
+public class XmlDiff {
+    private static final int MAX_VALUE_LENGTH = 80;
+    private static final QName TEXT_KEY = new QName("", "text()");
+
+    private final boolean ignoreWhitespace;
+    private final boolean ignoreAttrOrder;
+    private final int maxDiffs;
+    private final PrintStream out;
+    private int diffs = 0;
+
+    public XmlDiff(PrintStream out, boolean ignoreWhitespace, boolean ignoreAttrOrder, int maxDiffs) {
+        this.out = out;
+        this.ignoreWhitespace = ignoreWhitespace;
+        this.ignoreAttrOrder = ignoreAttrOrder;
+        this.maxDiffs = maxDiffs;
+    }
+
+    /**
+     * Compare two documents, printing one line per difference.
+     * Returns the number of differences found (capped at maxDiffs when set).
+     */
+    public int compare(Path oldFile, Path newFile) throws Exception {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        try (InputStream oldIn = Files.newInputStream(oldFile);
+             InputStream newIn = Files.newInputStream(newFile)) {
+            Cursor a = new Cursor(factory.createXMLStreamReader(oldIn));
+            Cursor b = new Cursor(factory.createXMLStreamReader(newIn));
+
+            while (!limitReached()) {
+                int ka = a.peek();
+                int kb = b.peek();
+                if (ka == Cursor.EOF && kb == Cursor.EOF) {
+                    break;
+                }
+                if (ka == Cursor.END && kb == Cursor.END) {
+                    a.leave();
+                    b.leave();
+                } else if (ka == Cursor.END || ka == Cursor.EOF) {
+                    report("+ " + b.peekPath());
+                    b.skip();
+                } else if (kb == Cursor.END || kb == Cursor.EOF) {
+                    report("- " + a.peekPath());
+                    a.skip();
+                } else if (ka == Cursor.ELEMENT && kb == Cursor.ELEMENT && a.name().equals(b.name())) {
+                    compareAttributes(a, b);
+                    a.enter();
+                    b.enter();
+                } else if (ka == Cursor.TEXT && kb == Cursor.TEXT) {
+                    String va = normalize(a.text());
+                    String vb = normalize(b.text());
+                    if (!va.equals(vb)) {
+                        report("~ " + a.peekPath() + ": " + quote(va) + " -> " + quote(vb));
+                    }
+                    a.skip();
+                    b.skip();
+                } else {
+                    report("- " + a.peekPath());
+                    report("+ " + b.peekPath());
+                    a.skip();
+                    b.skip();
+                }
+            }
+        }
+        if (limitReached()) {
+            out.printf("(stopped after %d differences)%n", maxDiffs);
+        }
+        return diffs;
+    }
+
+    private void compareAttributes(Cursor a, Cursor b) {
+        String path = a.peekPath();
+        XMLStreamReader ra = a.reader;
+        XMLStreamReader rb = b.reader;
+        Map<QName, String> attrsA = new LinkedHashMap<>();
+        Map<QName, String> attrsB = new LinkedHashMap<>();
+        for (int i = 0; i < ra.getAttributeCount(); i++) {
+            attrsA.put(ra.getAttributeName(i), ra.getAttributeValue(i));
+        }
+        for (int i = 0; i < rb.getAttributeCount(); i++) {
+            attrsB.put(rb.getAttributeName(i), rb.getAttributeValue(i));
+        }
+        for (Map.Entry<QName, String> e : attrsA.entrySet()) {
+            String attrPath = path + "/@" + e.getKey().getLocalPart();
+            String other = attrsB.get(e.getKey());
+            if (other == null) {
+                report("- " + attrPath);
+            } else if (!normalize(e.getValue()).equals(normalize(other))) {
+                report("~ " + attrPath + ": " + quote(e.getValue()) + " -> " + quote(other));
+            }
+        }
+        for (QName name : attrsB.keySet()) {
+            if (!attrsA.containsKey(name)) {
+                report("+ " + path + "/@" + name.getLocalPart());
+            }
+        }
+        if (!ignoreAttrOrder && attrsA.keySet().equals(attrsB.keySet())
+                && !new ArrayList<>(attrsA.keySet()).equals(new ArrayList<>(attrsB.keySet()))) {
+            report("~ " + path + ": attribute order " + attrNames(attrsA.keySet()) + " -> " + attrNames(attrsB.keySet()));
+        }
+    }
+
+    private String attrNames(Collection<QName> names) {
+        StringBuilder sb = new StringBuilder();
+        for (QName name : names) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('@').append(name.getLocalPart());
+        }
+        return sb.toString();
+    }
+
+    private void report(String line) {
+        if (limitReached()) return;
+        out.println(line);
+        diffs++;
+    }
+
+    private boolean limitReached() {
+        return maxDiffs > 0 && diffs >= maxDiffs;
+    }
+
+    private String normalize(String s) {
+        return ignoreWhitespace ? s.trim().replaceAll("\\s+", " ") : s;
+    }
+
+    /**
+     * A value for a diff line: truncated, quoted, and escaped so that it stays on one line.
+     */
+    private static String quote(String s) {
+        if (s.length() > MAX_VALUE_LENGTH) {
+            s = s.substring(0, MAX_VALUE_LENGTH - 3) + "...";
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '"': sb.append("\\\""); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * A pull cursor over the child tokens of the current element. Keeps one
+     * token of lookahead and, per open element, the sibling counters needed to
+     * build map-style positional paths.
+     */
+    private final class Cursor {
+        static final int ELEMENT = 1;
+        static final int TEXT = 2;
+        static final int END = 3;
+        static final int EOF = 4;
+
+        final XMLStreamReader reader;
+        private final Deque<String> paths = new ArrayDeque<>();
+        private final Deque<Map<QName, int[]>> counters = new ArrayDeque<>();
+        private int peeked = 0;
+
+        Cursor(XMLStreamReader reader) {
+            this.reader = reader;
+            paths.push("");
+            counters.push(new HashMap<>());
+        }
+
+        int peek() throws XMLStreamException {
+            if (peeked != 0) return peeked;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        return peeked = ELEMENT;
+                    case XMLStreamConstants.END_ELEMENT:
+                        return peeked = END;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (paths.size() == 1) break;  // outside the document element
+                        if (ignoreWhitespace && reader.isWhiteSpace()) break;
+                        return peeked = TEXT;
+                    default:
+                        break;
+                }
+            }
+            return peeked = EOF;
+        }
+
+        QName name() {
+            return reader.getName();
+        }
+
+        String text() {
+            return reader.getText();
+        }
+
+        String peekPath() {
+            String parent = paths.peek();
+            if (peeked == TEXT) {
+                return parent + "/text()[" + (count(TEXT_KEY) + 1) + "]";
+            }
+            String prefix = reader.getPrefix();
+            String display = prefix == null || prefix.isEmpty()
+                ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+            if (paths.size() == 1) {
+                return "/" + display;  // document element has no position, as in map
+            }
+            return parent + "/" + display + "[" + (count(reader.getName()) + 1) + "]";
+        }
+
+        void enter() {
+            String path = peekPath();
+            increment(reader.getName());
+            paths.push(path);
+            counters.push(new HashMap<>());
+            peeked = 0;
+        }
+
+        void leave() {
+            paths.pop();
+            counters.pop();
+            peeked = 0;
+        }
+
+        void skip() throws XMLStreamException {
+            if (peeked == ELEMENT) {
+                increment(reader.getName());
+                int depth = 1;
+                while (depth > 0 && reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) depth++;
+                    else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+                }
+            } else if (peeked == TEXT) {
+                increment(TEXT_KEY);
+            }
+            peeked = 0;
+        }
+
+        private int count(QName key) {
+            int[] c = counters.peek().get(key);
+            return c == null ? 0 : c[0];
+        }
+
+        private void increment(QName key) {
+            counters.peek().computeIfAbsent(key, k -> new int[1])[0]++;
+        }
+    }
+}
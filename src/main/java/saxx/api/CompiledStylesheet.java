@@ -0,0 +1,91 @@
+package saxx.api;
+
+import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.expr.Component;
+import net.sf.saxon.expr.instruct.GlobalVariable;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.s9api.Destination;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.Xslt30Transformer;
+import net.sf.saxon.s9api.XsltExecutable;
+import javax.xml.transform.Source;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A stylesheet compiled by a {@link SaxxEngine}. {@link #transform} may be called
+ * from any number of threads at once.
+ *
+ * <p>Saxon evaluates a transformer's global variables and parameters once, for
+ * the first input, and cannot re-evaluate them for another. Transformers are
+ * therefore reused through an idle pool only for stylesheets that declare no
+ * global variables or parameters; other stylesheets get a new transformer per
+ * call, which is cheap compared to compiling.
+ */
+public class CompiledStylesheet {
+    private final SaxxEngine engine;
+    private final XsltExecutable executable;
+    private final BlockingQueue<Xslt30Transformer> idle;
+
+    CompiledStylesheet(SaxxEngine engine, XsltExecutable executable, int poolSize) {
+        this.engine = engine;
+        this.executable = executable;
+        this.idle = poolSize > 0 && !hasGlobals(executable.getUnderlyingCompiledStylesheet())
+            ? new ArrayBlockingQueue<>(poolSize) : null;
+    }
+
+    public XsltExecutable getExecutable() {
+        return executable;
+    }
+
+    /**
+     * Whether transformers are reused between calls (see the class comment).
+     */
+    public boolean isPooled() {
+        return idle != null;
+    }
+
+    /**
+     * Transform with the engine's trace listener, if one is configured.
+     */
+    public void transform(Source source, Destination destination) throws SaxonApiException {
+        transform(source, destination, engine.newTraceListener());
+    }
+
+    public void transform(XdmNode input, Destination destination) throws SaxonApiException {
+        transform(input.asSource(), destination, engine.newTraceListener());
+    }
+
+    /**
+     * @param listener trace listener for this transform only, or null
+     */
+    public void transform(Source source, Destination destination, TraceListener listener) throws SaxonApiException {
+        Xslt30Transformer transformer = idle != null ? idle.poll() : null;
+        if (transformer == null) {
+            transformer = executable.load30();
+        }
+        transformer.setTraceListener(listener);
+        boolean succeeded = false;
+        try {
+            transformer.transform(source, destination);
+            succeeded = true;
+        } finally {
+            // A failed transformer may be left mid-transformation; let it go
+            if (succeeded && idle != null) {
+                transformer.setTraceListener(null);
+                transformer.getUnderlyingController().clearDocumentPool();
+                idle.offer(transformer);
+            }
+        }
+    }
+
+    private static boolean hasGlobals(PreparedStylesheet stylesheet) {
+        for (Component component : stylesheet.getTopLevelPackage().getComponentIndex().values()) {
+            if (component.getActor() instanceof GlobalVariable) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
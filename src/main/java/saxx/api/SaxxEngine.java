@@ -0,0 +1,158 @@
+package saxx.api;
+
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+import saxx.DocumentCache;
+import saxx.Mocks;
+import saxx.StylesheetCache;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Entry point for using saxx in-process. An engine owns one Saxon Processor
+ * with the mocks added by {@link #addMocks} or {@link #loadGlobalMocks}
+ * registered, and optionally a lookup-document cache and an on-disk
+ * compiled-stylesheet cache. Stylesheets compiled by it are shared by all threads.
+ *
+ * <p>Configure the engine (mocks, caches, trace listeners) before compiling;
+ * settings affect stylesheets compiled afterwards.
+ */
+public class SaxxEngine {
+    private final Processor processor = new Processor(false);
+    private final Set<String> ignoredElements = ConcurrentHashMap.newKeySet();
+    private final List<Path> mocksFiles = new ArrayList<>();
+    private volatile DocumentCache documentCache;
+    private volatile StylesheetCache stylesheetCache;
+    private volatile Supplier<? extends TraceListener> traceListenerFactory;
+    private volatile int poolSize = Runtime.getRuntime().availableProcessors();
+
+    public Processor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Register mock extension functions and ignored extension elements from a JSON file.
+     */
+    public synchronized void addMocks(Path mocksFile) throws IOException {
+        Mocks.register(processor, mocksFile, ignoredElements);
+        mocksFiles.add(mocksFile);
+    }
+
+    /**
+     * Register the user's global mocks file, as the command line does, if it
+     * exists. Unlike the command line, this never creates the file.
+     *
+     * @return whether the file was found
+     */
+    public synchronized boolean loadGlobalMocks() throws IOException {
+        if (!Files.exists(Mocks.GLOBAL_FILE)) {
+            return false;
+        }
+        addMocks(Mocks.GLOBAL_FILE);
+        return true;
+    }
+
+    /**
+     * Local names of extension elements the mocks declare as ignorable.
+     */
+    public Set<String> getIgnoredElements() {
+        return Collections.unmodifiableSet(ignoredElements);
+    }
+
+    /**
+     * Keep up to maxEntries documents loaded by doc()/document() parsed and shared
+     * by all transforms. Calling it again returns the existing cache.
+     */
+    public synchronized DocumentCache enableDocumentCache(int maxEntries) {
+        if (documentCache == null) {
+            documentCache = new DocumentCache(processor, maxEntries);
+        }
+        return documentCache;
+    }
+
+    /**
+     * @return the lookup-document cache, or null if not enabled
+     */
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * Load compiled stylesheets from, and store them in, an on-disk cache in dir.
+     */
+    public synchronized void setStylesheetCacheDir(Path dir) {
+        stylesheetCache = dir != null ? new StylesheetCache(dir) : null;
+    }
+
+    /**
+     * Supply a trace listener for each transform, e.g. a CompactTraceListener, a
+     * CoverageListener or Saxon's TimingTraceListener for profiling. The factory
+     * may return a shared instance only if that listener is thread-safe and
+     * tolerates close(), which Saxon calls at the end of every transform.
+     * Stylesheets compiled after this call are compiled with tracing.
+     */
+    public synchronized void setTraceListenerFactory(Supplier<? extends TraceListener> factory) {
+        traceListenerFactory = factory;
+        if (factory != null) {
+            enableTracing();
+        }
+    }
+
+    /**
+     * Compile stylesheets with the tracing hooks that trace listeners, coverage
+     * and cancellation rely on. Implied by {@link #setTraceListenerFactory}.
+     */
+    public synchronized void enableTracing() {
+        processor.getUnderlyingConfiguration().setCompileWithTracing(true);
+        processor.getUnderlyingConfiguration()
+            .setBooleanProperty(Feature.RETAIN_NODE_FOR_DIAGNOSTICS, true);
+    }
+
+    /**
+     * Maximum number of idle transformers kept per compiled stylesheet
+     * (default: number of processors).
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public CompiledStylesheet compile(Path stylesheet) throws SaxonApiException, IOException {
+        StylesheetCache cache;
+        String environment = null;
+        synchronized (this) {
+            // Keyed by the mocks and tracing options in effect now, not when the cache was set
+            cache = stylesheetCache;
+            if (cache != null) {
+                environment = StylesheetCache.environment(processor, mocksFiles);
+            }
+        }
+        // XsltCompiler is not thread-safe, but cheap to create
+        XsltCompiler compiler = processor.newXsltCompiler();
+        XsltExecutable executable = cache != null
+            ? cache.compile(compiler, stylesheet, environment)
+            : compiler.compile(new StreamSource(stylesheet.toFile()));
+        return new CompiledStylesheet(this, executable, poolSize);
+    }
+
+    public CompiledStylesheet compile(Source stylesheet) throws SaxonApiException {
+        return new CompiledStylesheet(this, processor.newXsltCompiler().compile(stylesheet), poolSize);
+    }
+
+    TraceListener newTraceListener() {
+        Supplier<? extends TraceListener> factory = traceListenerFactory;
+        return factory != null ? factory.get() : null;
+    }
+}